@@ -0,0 +1,81 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.benchmark;
+
+import groovy.lang.Closure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.beedom.dslforge.integrations.CompareCSV;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+
+/**
+ * Measures CompareCSV.map() comparing the multi-header test CSV file with itself
+ *
+ * @author zs.myth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompareCSVBenchmark {
+
+    private static final String CSV = "src/test/data/multiHeaderWithRepeat.csv";
+
+
+    private static Map datasource() {
+        Map options = new HashMap();
+        options.put("headerRows", 3);
+
+        Map ds = new HashMap();
+        ds.put("file", CSV);
+        ds.put("options", options);
+        return ds;
+    }
+
+
+    @Benchmark
+    public void map(final Blackhole blackhole) throws Exception {
+        CompareCSV compare = new CompareCSV();
+        compare.setActualDatasource(datasource());
+        compare.setExpectedDatasource(datasource());
+
+        try {
+            compare.map(new Closure(this) {
+                public Object doCall(Object actual, Object expected, Object index) {
+                    blackhole.consume(actual);
+                    blackhole.consume(expected);
+                    return null;
+                }
+            });
+        }
+        finally {
+            //CompareCSV does not close the readers of the datasources
+            ((CSVReader) ((Map) compare.getActualDatasource()).get("reader")).close();
+            ((CSVReader) ((Map) compare.getExpectedDatasource()).get("reader")).close();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.benchmark;
+
+import groovy.lang.Closure;
+import groovy.lang.GroovyShell;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.beedom.dslforge.DSLEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Measures DSLEngine.run(Closure) with nested delegate blocks and methods called by their aliases
+ *
+ * @author zs.myth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DSLEngineBenchmark {
+
+    private static final String DSL =
+        "return {\n" +
+        "    10.times { i ->\n" +
+        "        step \"step $i\", {\n" +
+        "            perform \"action $i\"\n" +
+        "            step \"inner $i\", { perform \"inner action $i\" }\n" +
+        "        }\n" +
+        "    }\n" +
+        "}";
+
+    private DSLEngine engine;
+    private Closure closure;
+
+
+    @Setup
+    public void setup() {
+        engine  = new DSLEngine(Collections.singletonMap("configFile", "src/test/conf/PooledDelegateTestConfig.groovy"));
+        closure = (Closure) new GroovyShell().evaluate(DSL);
+    }
+
+
+    @Benchmark
+    public Object runNestedDelegates() {
+        return engine.run(closure);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.benchmark;
+
+import groovy.lang.Binding;
+import groovy.lang.Closure;
+import groovy.lang.GroovyShell;
+import groovytools.builder.MetaBuilder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Measures MetaBuilder.buildList() building a customer with contacts against the test schema
+ *
+ * @author zs.myth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MetaBuilderBenchmark {
+
+    private static final String OBJECTS =
+        "return {\n" +
+        "    user {\n" +
+        "        kind = 'customer'\n" +
+        "        userid = 'test@nowhere.com'\n" +
+        "        password = 'hellobaby'\n" +
+        "        firstName = 'Test'\n" +
+        "        lastName = 'Customer'\n" +
+        "        title = 'Mr.'\n" +
+        "        sex = 'M'\n" +
+        "        contacts {\n" +
+        "            address {\n" +
+        "                purpose = 'shiping,billing'\n" +
+        "                country = 'Netherlands'\n" +
+        "                countryCode = 'NLD'\n" +
+        "                address1 = 'Dutch Test'\n" +
+        "                city = 'Delft'\n" +
+        "                postalCode = 'NL23212'\n" +
+        "            }\n" +
+        "            phone(purpose: 'home', areaCode: '+33-1', number: '1234567')\n" +
+        "            email(purpose: 'primary', address: 'test@nowhere.com')\n" +
+        "        }\n" +
+        "    }\n" +
+        "}";
+
+    private MetaBuilder metaBuilder;
+    private Closure objects;
+
+
+    @Setup
+    public void setup() throws Exception {
+        Binding context = new Binding();
+        metaBuilder = new MetaBuilder();
+        context.setVariable("metaBuilder", metaBuilder);
+
+        GroovyShell shell = new GroovyShell(context);
+        shell.evaluate(new File("src/test/conf/MetaBuilderSchema.groovy"));
+
+        objects = (Closure) shell.evaluate(OBJECTS);
+    }
+
+
+    @Benchmark
+    public List buildList() {
+        return metaBuilder.buildList(objects);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.benchmark;
+
+import groovy.lang.Closure;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.beedom.dslforge.integrations.CSVMappingPlan;
+import org.beedom.dslforge.integrations.OpenCSVCategory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import au.com.bytecode.opencsv.CSVReader;
+
+
+/**
+ * Measures the mapping of the multi-header test CSV files: one data line converted by convertNamesToMaps()
+ * or by the CSVMappingPlan of the header, and the whole file read by openCsvEachRow()
+ *
+ * @author zs.myth
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OpenCSVBenchmark {
+
+    @Param({"multiHeader.csv", "multiHeaderWithRepeat.csv"})
+    public String csv;
+
+    private File file;
+    private int headerRows;
+    private List<List> header;
+    private CSVMappingPlan plan;
+    private String[] line;
+
+
+    @Setup
+    public void setup() throws Exception {
+        file       = new File("src/test/data", csv);
+        headerRows = csv.equals("multiHeader.csv") ? 2 : 3;
+        header     = OpenCSVCategory.openCsvHeader(file, options());
+        plan       = new CSVMappingPlan(header);
+
+        CSVReader reader = new CSVReader(new java.io.FileReader(file));
+        try {
+            for (int i = 0; i <= headerRows; i++) {
+                line = reader.readNext();
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+
+    private Map options() {
+        Map options = new HashMap();
+        options.put("headerRows", headerRows);
+        return options;
+    }
+
+
+    @Benchmark
+    public Map convertNamesToMaps() {
+        Map map = new HashMap();
+
+        for (int i = 0; i < header.size(); i++) {
+            OpenCSVCategory.convertNamesToMaps(map, header.get(i), false, null, line[i]);
+        }
+        return map;
+    }
+
+
+    @Benchmark
+    public Map mappingPlan() {
+        return plan.fillRow(new HashMap(), line, 0, false, null);
+    }
+
+
+    @Benchmark
+    public void openCsvEachRow(final Blackhole blackhole) {
+        OpenCSVCategory.openCsvEachRow(file, options(), new Closure(this) {
+            public Object doCall(Object row, Object index) {
+                blackhole.consume(row);
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * Aggregated result of the scripts run by DSLEngine.runBatch() or runEach(). The results are in the order
+ * of the script names and records, independently of the order the scripts were finished.
+ *
+ * @author zs.myth
+ */
+class BatchResult {
+
+    public enum Status {PASSED, FAILED}
+
+    /**
+     * Result of one script of the batch
+     */
+    static class ScriptResult {
+        String scriptName
+        Status status
+
+        /**
+         * Index of the input record of DSLEngine.runEach(), or null
+         */
+        Integer record
+
+        /**
+         * Execution time in milliseconds
+         */
+        long time
+
+        /**
+         * The value returned by the script, or the exception thrown by it
+         */
+        def value
+        Throwable error
+
+        /**
+         * The report rendered by the script, or null if there was no reporter
+         */
+        String report
+    }
+
+    final List<ScriptResult> results
+
+    /**
+     * Wall-clock time of the whole batch in milliseconds
+     */
+    final long time
+
+
+    /**
+     *
+     * @param scriptResults
+     * @param elapsed
+     */
+    public BatchResult(List<ScriptResult> scriptResults, long elapsed) {
+        results = scriptResults.sort(false) { a, b -> a.scriptName <=> b.scriptName ?: a.record <=> b.record }.asImmutable()
+        time    = elapsed
+    }
+
+
+    /**
+     *
+     * @return the results of the failed scripts
+     */
+    public List<ScriptResult> getFailures() {
+        return results.findAll { it.status == Status.FAILED }
+    }
+
+
+    /**
+     *
+     * @return true if all scripts passed
+     */
+    public boolean isSuccess() {
+        return !failures
+    }
+
+
+    /**
+     * Writes the reports of the scripts in the order of the results
+     *
+     * @param renderer the reporter receiving the merged reports
+     */
+    public void writeReports(SimpleRenderer renderer) {
+        results.each { ScriptResult result ->
+            if(result.report) {
+                renderer.append(result.report)
+            }
+        }
+    }
+
+
+    /**
+     *
+     * @return one line summary of the batch
+     */
+    public String toString() {
+        return "Scripts: ${results.size()}, passed: ${results.size() - failures.size()}, failed: ${failures.size()}, time: ${time} ms"
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import java.security.MessageDigest
+
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.Phases
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.tools.GroovyClass
+
+
+/**
+ * Persistent cache of compiled scripts. Each source file and fingerprint pair has its own directory
+ * containing the class files and a manifest file, which records the hash of the source and the
+ * fingerprint of everything else that was used to compile it (configuration, delegates, groovy version).
+ * Scripts of the same root directory used by the source are compiled into the same directory, and their
+ * hashes are recorded as well. Unchanged scripts are loaded straight from the class files, even in a new JVM.
+ * The directory is written under a temporary name and renamed, so other processes never see it half written,
+ * and it is never modified or deleted afterwards, as class loaders may still load classes from it. The
+ * entries of old sources are left in place, they can be removed when no engine uses the cache directory.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class BytecodeCache {
+
+    public static final String MANIFEST = "manifest.properties"
+
+    /**
+     * Prefix of the manifest entries containing the hash of the scripts used by the source
+     */
+    private static final String DEPENDENCY = "dependency."
+
+    private final Random random = new Random()
+
+    private final File cacheDir
+    private final GroovyClassLoader parentLoader
+
+    /**
+     * Classes loaded by this instance with the stamp of the source and the manifest, keyed by the
+     * path of the source and the fingerprint
+     */
+    private final Map loadedUnits = [:]
+
+
+    /**
+     *
+     * @param dir the root directory of the cache, created if it does not exist
+     * @param parent the class loader used to resolve classes referred by the scripts
+     */
+    public BytecodeCache(File dir, GroovyClassLoader parent) {
+        assert dir, "directory of bytecode cache must be specified"
+
+        cacheDir = dir
+        parentLoader = parent
+
+        if(!cacheDir.exists()) {
+            assert cacheDir.mkdirs(), "could not create directory of bytecode cache: $cacheDir"
+        }
+        log.info "Bytecode cache directory: ${cacheDir.absolutePath}"
+    }
+
+
+    /**
+     *
+     * @return the root directory of the cache
+     */
+    public File getDirectory() {
+        return cacheDir
+    }
+
+
+    /**
+     * Returns the main class of the source file either from the cache or by compiling it
+     *
+     * @param source the script file
+     * @param fingerprint identifies everything else than the source which was used to compile the class
+     * @param configuration returns the CompilerConfiguration, only called if the source needs to be compiled
+     * @return the class compiled from the source
+     */
+    public Class loadClass(File source, String fingerprint, Closure configuration) {
+        return loadClass(source, null, fingerprint, configuration)
+    }
+
+
+    /**
+     * Returns the main class of the source file either from the cache or by compiling it. The source is
+     * only hashed if it was not loaded by this instance, or its size or modification time has changed.
+     *
+     * @param source the script file
+     * @param root the root directory of the scripts used to find the other scripts referred by the source, can be null
+     * @param fingerprint identifies everything else than the source which was used to compile the class
+     * @param configuration returns the CompilerConfiguration, only called if the source needs to be compiled
+     * @return the class compiled from the source
+     */
+    public synchronized Class loadClass(File source, File root, String fingerprint, Closure configuration) {
+        assert source.exists(), "source file does not exist: $source"
+
+        String key = source.canonicalPath + "|" + fingerprint
+        String stamp = source.lastModified() + "," + source.length()
+        Map loaded = loadedUnits[key]
+
+        if(loaded && loaded.stamp == stamp && isUpToDate(fingerprint, loaded.manifest)) {
+            return loaded.clazz
+        }
+
+        String unitName = getUnitName(source, fingerprint)
+        Properties manifest = null
+        File unitDir = null
+
+        //the entries of the same source differ in the scripts used by the source
+        for(int i = 0; !unitDir; i++) {
+            File dir = new File(cacheDir, unitName + "-" + i)
+            manifest = readManifest(new File(dir, MANIFEST))
+
+            if(!manifest) {
+                break
+            }
+            if(isUpToDate(fingerprint, manifest)) {
+                unitDir = dir
+            }
+        }
+
+        Class clazz = null
+
+        if(unitDir) {
+            log.debug "Loading '${source.name}' from bytecode cache: $unitDir"
+            clazz = defineLoader(unitDir).loadClass(manifest.mainClass)
+        }
+        else {
+            (clazz, manifest) = compile(source, root, fingerprint, unitName, configuration())
+        }
+
+        loadedUnits[key] = [stamp: stamp, clazz: clazz, manifest: manifest]
+        return clazz
+    }
+
+
+    /**
+     * The name contains the hash of the source, so a changed source gets new entries, and the classes
+     * of an entry never change while a class loader may still read them
+     *
+     * @param source
+     * @param fingerprint
+     * @return the common prefix of the entries of the source and fingerprint
+     */
+    private String getUnitName(File source, String fingerprint) {
+        String name = source.name.replaceAll("[^\\w]", "_")
+        return name + "-" + hash((source.canonicalPath + "|" + fingerprint + "|" + hash(source.bytes)).getBytes("UTF-8"))
+    }
+
+
+    /**
+     * Checks the manifest against the fingerprint, the groovy version and the scripts used by the source
+     *
+     * @param fingerprint
+     * @param manifest
+     * @return
+     */
+    private boolean isUpToDate(String fingerprint, Properties manifest) {
+        if(manifest.fingerprint != fingerprint || manifest.groovyVersion != GroovySystem.version) {
+            return false
+        }
+
+        return manifest.stringPropertyNames().findAll { it.startsWith(DEPENDENCY) }.every { String key ->
+            return isUpToDate(new File(key - DEPENDENCY), manifest[key])
+        }
+    }
+
+
+    /**
+     * The root directory is on the classpath of the compilation, so the scripts used by the source are
+     * compiled in the same unit. The classes and the manifest are written into a temporary directory,
+     * which is renamed to the first free entry name, so existing entries are never modified.
+     *
+     * @param source
+     * @param root
+     * @param fingerprint
+     * @param unitName
+     * @param config
+     * @return the class and the manifest
+     */
+    private List compile(File source, File root, String fingerprint, String unitName, CompilerConfiguration config) {
+        log.info "Compiling '${source.name}' into bytecode cache: $cacheDir"
+
+        GroovyClassLoader loader = new GroovyClassLoader(parentLoader, config)
+
+        if(root) {
+            loader.addURL(root.toURI().toURL())
+        }
+
+        CompilationUnit unit = new CompilationUnit(config, null, loader)
+        unit.addSource(source)
+        unit.compile(Phases.CLASS_GENERATION)
+
+        File tempDir = new File(cacheDir, unitName + ".tmp" + Long.toHexString(random.nextLong()))
+        tempDir.mkdirs()
+
+        unit.classes.each { GroovyClass gc ->
+            File classFile = new File(tempDir, gc.name.replace('.', '/') + ".class")
+            classFile.parentFile.mkdirs()
+            classFile.bytes = gc.bytes
+        }
+
+        Properties manifest = new Properties()
+        manifest.source         = source.canonicalPath
+        manifest.fingerprint    = fingerprint
+        manifest.groovyVersion  = GroovySystem.version
+        manifest.mainClass      = unit.firstClassNode.name
+
+        getDependencies(unit, source).each { File dependency ->
+            manifest[DEPENDENCY + dependency.canonicalPath] = dependency.lastModified() + "," + dependency.length() + "," + hash(dependency.bytes)
+        }
+
+        writeManifest(new File(tempDir, MANIFEST), manifest)
+
+        File unitDir = null
+
+        //the name is taken if another process has written an entry in the meantime
+        for(int i = 0; !unitDir; i++) {
+            File dir = new File(cacheDir, unitName + "-" + i)
+
+            if(!dir.exists()) {
+                if(tempDir.renameTo(dir)) {
+                    unitDir = dir
+                }
+                else {
+                    assert dir.exists(), "could not rename $tempDir to $dir"
+                }
+            }
+        }
+
+        log.debug "'${source.name}' is written into bytecode cache: $unitDir"
+
+        return [defineLoader(unitDir).loadClass(manifest.mainClass), manifest]
+    }
+
+
+    /**
+     * The hash of the file is only computed if its size or modification time differs from the recorded one
+     *
+     * @param file
+     * @param recorded the modification time, size and hash of the file separated by commas
+     * @return
+     */
+    private boolean isUpToDate(File file, String recorded) {
+        if(!file.exists()) {
+            return false
+        }
+
+        if(recorded.startsWith(file.lastModified() + "," + file.length() + ",")) {
+            return true
+        }
+        return recorded.endsWith("," + hash(file.bytes))
+    }
+
+
+    /**
+     *
+     * @param unit
+     * @param source
+     * @return the source files of the unit other than the source
+     */
+    private List<File> getDependencies(CompilationUnit unit, File source) {
+        List<File> files = []
+
+        unit.iterator().each { SourceUnit su ->
+            File file = su.name.startsWith("file:") ? new File(new URL(su.name).toURI()) : new File(su.name)
+
+            if(file.exists() && file.canonicalPath != source.canonicalPath) {
+                files << file.canonicalFile
+            }
+        }
+        return files
+    }
+
+
+    /**
+     * A new class loader is needed for each compilation, as class loaders cannot forget classes
+     *
+     * @param unitDir
+     * @return
+     */
+    private ClassLoader defineLoader(File unitDir) {
+        return new URLClassLoader([unitDir.toURI().toURL()] as URL[], parentLoader)
+    }
+
+
+    /**
+     *
+     * @param file
+     * @return
+     */
+    private Properties readManifest(File file) {
+        if(!file.exists()) {
+            return null
+        }
+
+        Properties p = new Properties()
+        file.withInputStream { p.load(it) }
+        return p
+    }
+
+
+    /**
+     *
+     * @param file
+     * @param manifest
+     */
+    private void writeManifest(File file, Properties manifest) {
+        file.withOutputStream { manifest.store(it, "DSLForge bytecode cache") }
+    }
+
+
+    /**
+     *
+     * @param bytes
+     * @return SHA-1 hash in hex format
+     */
+    public static String hash(byte[] bytes) {
+        byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes)
+        return String.format("%040x", new BigInteger(1, digest))
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import org.codehaus.groovy.reflection.CachedMethod
+import org.codehaus.groovy.runtime.metaclass.NewInstanceMetaMethod
+
+
+/**
+ * Static method of a category class registered as an instance method of its first parameter type
+ * (dsl.categoryMode = 'metaClass'). The method can only be called while a DSLEngine is running in the
+ * current thread, and the config of the engine lists the category. Otherwise it is missing, as if the
+ * method was only available within use(categories).
+ *
+ * @author zs.myth
+ */
+class CategoryMetaMethod extends NewInstanceMetaMethod {
+
+    /**
+     * The category class declaring the method
+     */
+    final Class category
+
+
+    /**
+     *
+     * @param category the category class
+     * @param method the public static method of the category
+     */
+    public CategoryMetaMethod(Class category, CachedMethod method) {
+        super(method)
+        this.category = category
+    }
+
+
+    /**
+     * Invokes the static method with the object as its first argument
+     *
+     * @throws MissingMethodException if the current engine does not use the category
+     */
+    public Object invoke(Object object, Object[] arguments) {
+        List categories = DSLEngine.currentEngine?.profile?.categories
+
+        if(categories == null || !categories.contains(category)) {
+            throw new MissingMethodException(name, object.getClass(), arguments)
+        }
+        return super.invoke(object, arguments)
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * Thin client of DSLDaemon. It sends the token of the daemon and one request, copies the response to
+ * the output and returns the exit status sent by the daemon. It does not initialise any DSLEngine.
+ *
+ * @author zs.myth
+ */
+class DSLClient {
+
+    final int port
+    final File tokenFile
+
+
+    /**
+     *
+     * @param p the port of the daemon on the loopback interface
+     */
+    public DSLClient(int p) {
+        this(p, DSLDaemon.getTokenFile(p))
+    }
+
+
+    /**
+     *
+     * @param p the port of the daemon on the loopback interface
+     * @param file the token file written by the daemon
+     */
+    public DSLClient(int p, File file) {
+        port      = p
+        tokenFile = file
+    }
+
+
+    /**
+     *
+     * @param scriptNames
+     * @param out receives the report and the status of the scripts
+     * @return the exit status
+     */
+    public int run(List<String> scriptNames, Writer out) {
+        return submit(([DSLDaemon.RUN] + scriptNames).join(DSLDaemon.SEPARATOR), out)
+    }
+
+
+    /**
+     *
+     * @param pattern the pattern of the script names
+     * @param threads the number of worker threads used by the daemon
+     * @param out receives the report and the status of the scripts
+     * @return the exit status
+     */
+    public int runBatch(String pattern, int threads, Writer out) {
+        return submit([DSLDaemon.BATCH, threads, pattern].join(DSLDaemon.SEPARATOR), out)
+    }
+
+
+    /**
+     *
+     * @return the exit status
+     */
+    public int shutdown() {
+        return submit(DSLDaemon.SHUTDOWN, new StringWriter())
+    }
+
+
+    /**
+     *
+     * @param request the request line
+     * @param out receives the response except the exit status
+     * @return the exit status, or 2 if the daemon closed the connection without sending it
+     */
+    private int submit(String request, Writer out) {
+        Socket socket = new Socket(InetAddress.getByName(null), port)
+
+        try {
+            def writer = new PrintWriter(new OutputStreamWriter(socket.outputStream, DSLDaemon.ENCODING))
+            writer.println tokenFile.getText(DSLDaemon.ENCODING).trim()
+            writer.println request
+            writer.flush()
+
+            def reader = new BufferedReader(new InputStreamReader(socket.inputStream, DSLDaemon.ENCODING))
+            String line = null
+
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith(DSLDaemon.EXIT + " ")) {
+                    return line.substring(DSLDaemon.EXIT.length() + 1) as int
+                }
+                out.write(line)
+                out.write(System.getProperty("line.separator"))
+                out.flush()
+            }
+            return 2
+        }
+        finally {
+            socket.close()
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.regex.Pattern
+
+
+/**
+ * Keeps a warmed up DSLEngine resident and runs the scripts requested by DSLClient. It only listens
+ * on the loopback interface. The daemon writes a random token into a file only readable by its user
+ * (see getTokenFile()), and the first line of each connection shall be this token. Then the connection
+ * carries one request line, the fields are separated by tabs:
+ * <pre>
+ *     RUN      scriptName [scriptName ...]
+ *     BATCH    threads pattern
+ *     SHUTDOWN
+ * </pre>
+ * The script names shall be inside the scripts home. The response contains the report and the status of
+ * each script as soon as it has finished, and the last line is <code>EXIT status</code>, where the status
+ * is 0 if all scripts passed, 1 if any failed and 2 for errors.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class DSLDaemon {
+
+    public static final String RUN      = "RUN"
+    public static final String BATCH    = "BATCH"
+    public static final String SHUTDOWN = "SHUTDOWN"
+    public static final String EXIT     = "EXIT"
+
+    public static final String SEPARATOR = "\t"
+    public static final String ENCODING  = "UTF-8"
+
+    /**
+     * Maximum number of connections processed at the same time
+     */
+    public static final int MAX_CONNECTIONS = 8
+
+    /**
+     * Default time in milliseconds to wait for the token and the request lines
+     */
+    public static final int READ_TIMEOUT = 10000
+
+    final DSLEngine engine
+    final int port
+
+    /**
+     * The file of the token, getTokenFile(localPort) is used if it is not set before start()
+     */
+    File tokenFile = null
+
+    /**
+     * Time in milliseconds to wait for the token and the request lines, the connection is closed if the
+     * client does not send them, so idle connections cannot block the workers
+     */
+    int readTimeout = READ_TIMEOUT
+
+    private String token = null
+
+    private ServerSocket serverSocket = null
+    private ExecutorService workers = null
+    private volatile boolean running = false
+
+
+    /**
+     *
+     * @param dsle the engine running the scripts
+     * @param p the port on the loopback interface, 0 to use any free port
+     */
+    public DSLDaemon(DSLEngine dsle, int p) {
+        assert dsle, "DSLEngine must be specified"
+
+        engine = dsle
+        port   = p
+    }
+
+
+    /**
+     * Opens the server socket, the requests are only accepted when serve() is called
+     */
+    public void start() {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null))
+        workers      = Executors.newFixedThreadPool(MAX_CONNECTIONS)
+        running      = true
+
+        writeToken()
+
+        log.info "DSL daemon is listening on port $localPort, token file: $tokenFile"
+    }
+
+
+    /**
+     * 
+     * @param port the port of the daemon
+     * @return the default token file of the daemon in the home directory of the user
+     */
+    public static File getTokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".dslforge/daemon-${port}.token")
+    }
+
+
+    /**
+     * Creates the token file, only its owner can read and write it
+     */
+    private void writeToken() {
+        byte[] bytes = new byte[32]
+        new SecureRandom().nextBytes(bytes)
+        token = bytes.collect { String.format("%02x", it & 0xff) }.join()
+
+        if(!tokenFile) {
+            tokenFile = getTokenFile(localPort)
+        }
+        tokenFile.absoluteFile.parentFile.mkdirs()
+        tokenFile.delete()
+        tokenFile.createNewFile()
+
+        //Java 6 has no PosixFilePermissions, the permissions are restricted before the token is written
+        tokenFile.setReadable(false, false)
+        tokenFile.setWritable(false, false)
+        tokenFile.setExecutable(false, false)
+        assert tokenFile.setReadable(true, true) && tokenFile.setWritable(true, true), "could not restrict the permissions of $tokenFile"
+
+        tokenFile.setText(token, ENCODING)
+    }
+
+
+    /**
+     * 
+     * @param line the first line of the connection
+     * @return true if it is the token of the daemon
+     */
+    private boolean isAuthorized(String line) {
+        return line != null && MessageDigest.isEqual(line.getBytes(ENCODING), token.getBytes(ENCODING))
+    }
+
+
+    /**
+     *
+     * @return the port the daemon is listening on
+     */
+    public int getLocalPort() {
+        return serverSocket.localPort
+    }
+
+
+    /**
+     * Accepts the requests until the daemon is stopped. Each request is processed by its own thread.
+     */
+    public void serve() {
+        assert serverSocket, "start() must be called before serve()"
+
+        while(running) {
+            Socket socket = null
+
+            try {
+                socket = serverSocket.accept()
+            }
+            catch (SocketException e) {
+                if(!running) {
+                    break
+                }
+                throw e
+            }
+
+            workers.submit({ handle(socket) } as Runnable)
+        }
+        log.info "DSL daemon has been stopped"
+    }
+
+
+    /**
+     *
+     */
+    public void stop() {
+        running = false
+        serverSocket?.close()
+        workers?.shutdown()
+        tokenFile?.delete()
+    }
+
+
+    /**
+     *
+     * @param socket
+     */
+    private void handle(Socket socket) {
+        socket.soTimeout = readTimeout
+
+        socket.withStreams { InputStream input, OutputStream output ->
+            def reader = new BufferedReader(new InputStreamReader(input, ENCODING))
+            def writer = new PrintWriter(new OutputStreamWriter(output, ENCODING))
+
+            int status = 2
+
+            try {
+                if(isAuthorized(reader.readLine())) {
+                    status = process(reader.readLine(), writer)
+                }
+                else {
+                    log.warn "Request with invalid token was rejected"
+                    writer.println "ERROR invalid token"
+                }
+            }
+            catch (SocketTimeoutException e) {
+                log.warn "Connection was closed, the request was not sent in $readTimeout ms"
+                return
+            }
+            catch (Throwable e) {
+                log.error("Failed to process request", e)
+                writer.println "ERROR $e"
+            }
+
+            writer.println "$EXIT $status"
+            writer.flush()
+        }
+    }
+
+
+    /**
+     *
+     * @param request the request line
+     * @param writer the response
+     * @return the exit status
+     */
+    private int process(String request, PrintWriter writer) {
+        log.info "Request: $request"
+
+        List fields = request ? request.split(SEPARATOR) as List : []
+        BatchResult batch = null
+
+        Closure stream = { BatchResult.ScriptResult result -> writeResult(writer, result) }
+
+        switch(fields ? fields[0] : null) {
+            case RUN:
+                List scriptNames = fields.tail()
+                String outside = scriptNames.find { !isInScriptsHome(it) }
+
+                if(outside != null) {
+                    writer.println "ERROR script is outside of the scripts home: $outside"
+                    return 2
+                }
+                batch = engine.runScripts(scriptNames, 1, stream)
+                break
+
+            case BATCH:
+                assert fields.size() == 3, "BATCH request shall have threads and pattern"
+                batch = engine.runScripts(engine.findScripts(Pattern.compile(fields[2])), fields[1] as int, stream)
+                break
+
+            case SHUTDOWN:
+                stop()
+                return 0
+
+            default:
+                writer.println "ERROR unknown request: $request"
+                return 2
+        }
+
+        writer.println batch
+
+        return batch.success ? 0 : 1
+    }
+
+
+    /**
+     * Writes the report and the status of the script as soon as it has finished
+     *
+     * @param writer the response
+     * @param result
+     */
+    private void writeResult(PrintWriter writer, BatchResult.ScriptResult result) {
+        synchronized(writer) {
+            if(result.report) {
+                writer.print result.report
+            }
+            writer.println "${result.status} ${result.scriptName} (${result.time} ms)"
+
+            if(result.error) {
+                writer.println "ERROR ${result.error}"
+            }
+            writer.flush()
+        }
+    }
+
+
+    /**
+     *
+     * @param scriptName
+     * @return true if the canonical path of the script is inside the scripts home
+     */
+    private boolean isInScriptsHome(String scriptName) {
+        assert engine.scriptsHome, "scripts home of the engine is not defined"
+
+        String home = new File(engine.scriptsHome).canonicalPath + File.separator
+        return new File(engine.scriptsHome, scriptName).canonicalPath.startsWith(home)
+    }
+}
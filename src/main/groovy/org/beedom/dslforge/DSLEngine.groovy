@@ -17,12 +17,20 @@ package org.beedom.dslforge
 
 import groovy.util.logging.Slf4j
 import groovy.lang.MissingPropertyException
+import groovy.sql.Sql
 
-import org.apache.commons.io.FilenameUtils;
+import org.beedom.dslforge.integrations.OpenCSVCategory
+
+import org.codehaus.groovy.runtime.InvokerHelper
 import org.codehaus.groovy.control.CompilerConfiguration
 import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
-import org.codehaus.groovy.control.customizers.ImportCustomizer
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicReference
 import java.util.regex.Pattern
 
 
@@ -37,17 +45,42 @@ public class DSLEngine  {
     private String configFile = ""
     private String configEnv = ""
     private String scriptsHome = ""
+    private String cacheDir = ""
 
     private ConfigObject   dslConfig = null
     private Binding        context = null
     private ReportRenderer reporter = null
 
-    private GroovyScriptEngine gse = null
-    private aliases = [:]
+    private EngineProfile profile = null
+    private Map scriptEngines = [:]
+    private BytecodeCache bytecodeCache = null
+    private IncludeCache includeCache = null
+
+    /**
+     * Receives the timing of the delegate blocks, aliases, includes, compilation and reporting
+     */
+    private ExecutionListener listener = NoopExecutionListener.INSTANCE
+
+    private static final ThreadLocal<ExecutionContext> currentExecution = new ThreadLocal<ExecutionContext>()
+
+    /**
+     * Engines shared by the whole process, keyed by the canonical path of the config file and the environment
+     */
+    private static final Map sharedEngines = [:]
 
+    /**
+     * State of the executions using the context of the engine, i.e. run() called without Binding
+     */
     private def injectedAliases = Collections.synchronizedMap([:])
     private def delegatesMap = Collections.synchronizedMap([:])
 
+    /**
+     * Released instances of the delegate classes with resetDelegate() method, keyed by the class
+     */
+    private def delegatePools = Collections.synchronizedMap([:])
+
+    private static final Object[] NO_ARGS = new Object[0]
+
 	//private boolean initContext = false
 
 	/**
@@ -81,7 +114,7 @@ public class DSLEngine  {
      */
     public static void main(String[] args) {
 
-        def cli = new CliBuilder(usage: 'dslengine -[chedp] [file/directory name/pattern]')
+        def cli = new CliBuilder(usage: 'dslengine -[chedpkjsri] [file/directory name/pattern]')
 
         cli.with {
             h longOpt: 'help', 'Show usage information'
@@ -89,6 +122,14 @@ public class DSLEngine  {
             e longOpt: 'config-env',  args: 1, argName: 'confEnv',   'Configuration environment'
             d longOpt: 'script-dir',  args: 1, argName: 'scriptDir', 'Script root directory'
             p longOpt: 'pattern',     args: 1, argName: 'pattern',   'File pattern'
+            k longOpt: 'cache-dir',   args: 1, argName: 'cacheDir',  'Directory of the persistent bytecode cache'
+            j longOpt: 'threads',     args: 1, argName: 'threads',   'Run the scripts of the pattern in parallel'
+            s longOpt: 'server',      args: 1, argName: 'port',      'Start daemon listening on the local port'
+            r longOpt: 'remote',      args: 1, argName: 'port',      'Submit the scripts to the daemon listening on the local port'
+            _ longOpt: 'stop',                                        'Stop the daemon given by --remote'
+            i longOpt: 'input',       args: 1, argName: 'csvFile',   'Run the scripts once for each row of the CSV file'
+            _ longOpt: 'sqlite',      args: 1, argName: 'dbFile',    'Run the scripts once for each row of --query'
+            _ longOpt: 'query',       args: 1, argName: 'sql',       'Query of the input rows in the --sqlite database'
         }
 
         def options = cli.parse(args)
@@ -107,16 +148,87 @@ public class DSLEngine  {
         def confEnv
         def scriptDir
         def pattern
+        def cache
+        def threads
 
         if (options.c) { confFile  = options.c }
         if (options.e) { confEnv   = options.e }
         if (options.d) { scriptDir = options.d }
         if (options.p) { pattern   = options.p }
+        if (options.k) { cache     = options.k }
+        if (options.j) { threads   = options.j as int }
+
+        if (options.sqlite && !options.query) {
+            println "error: --sqlite requires --query"
+            cli.usage()
+            return
+        }
 
         def arguments = options.arguments()
-        def dsl = new DSLEngine( configFile: confFile, configEnv: confEnv, scriptsHome: scriptDir )
 
-        if(pattern) {
+        //thin client: the scripts are run by the daemon
+        if (options.r) {
+            DSLClient client = new DSLClient(options.r as int)
+            Writer out = new PrintWriter(System.out)
+            int status = 0
+
+            if (options.stop) {
+                status = client.shutdown()
+            }
+            else {
+                if (pattern) { status = Math.max(status, client.runBatch(pattern, threads ?: 1, out)) }
+                if (arguments) { status = Math.max(status, client.run(arguments, out)) }
+            }
+            System.exit(status)
+        }
+
+        def dsl = new DSLEngine( configFile: confFile, configEnv: confEnv, scriptsHome: scriptDir, cacheDir: cache )
+
+        if (options.s) {
+            dsl.reporter = new SimpleRenderer(type: SimpleRenderer.ReportType.TXT, writer: new PrintWriter(System.out))
+
+            DSLDaemon daemon = new DSLDaemon(dsl, options.s as int)
+            daemon.start()
+            daemon.serve()
+            return
+        }
+
+        if (options.i || options.sqlite) {
+            Sql sql = options.sqlite ? Sql.newInstance("jdbc:sqlite:${options.sqlite}", "org.sqlite.JDBC") : null
+            boolean success = true
+
+            try {
+                arguments.each { file ->
+                    BatchResult batch = options.i ? dsl.runEachCsvRow(file, new File(options.i), [headerRows: 1], threads ?: 1)
+                                                  : dsl.runEachSqlRow(file, sql, options.query, threads ?: 1)
+
+                    batch.results.each { println "${it.status} ${it.scriptName}[${it.record}] (${it.time} ms)" }
+                    println batch
+
+                    success &= batch.success
+                }
+            }
+            finally {
+                sql?.close()
+            }
+
+            if(!success) {
+                System.exit(1)
+            }
+            return
+        }
+
+        if(pattern && threads) {
+            BatchResult batch = dsl.runBatch( Pattern.compile(pattern), threads )
+
+            batch.results.each { println "${it.status} ${it.scriptName} (${it.time} ms)" }
+            println batch
+
+            if(!batch.success) {
+                System.exit(1)
+            }
+        }
+        else if(pattern) {
             dsl.run( Pattern.compile(pattern) )
         }
 
@@ -130,14 +242,25 @@ public class DSLEngine  {
      * 
      */
     public void init() {
-        if(!dslConfig) {
-            if(!configFile) { configFile = "conf/DSLConfig.groovy" }
-            if(!configEnv)  { configEnv  = "development" }
+        //config file is only cached if the directory was given before the config was loaded
+        if(cacheDir) {
+            initBytecodeCache()
+        }
+
+        if(!profile) {
+            if(dslConfig) {
+                profile = new EngineProfile(dslConfig)
+            }
+            else {
+                if(!configFile) { configFile = "conf/DSLConfig.groovy" }
+                if(!configEnv)  { configEnv  = "development" }
 
-            log.debug("Loading config:$configFile for environment:$configEnv")
-            dslConfig = new ConfigSlurper(configEnv).parse(new File(configFile).toURI().toURL())
+                profile = EngineProfile.forConfig(configFile, configEnv, bytecodeCache)
+            }
         }
 
+        dslConfig = profile.config
+
         log.debug("DSL config: "+dslConfig.dump())
         
         if(!context) {
@@ -145,12 +268,21 @@ public class DSLEngine  {
         }
 
         if(!scriptsHome) {
-            scriptsHome = dslConfig.dsl.scripts
+            scriptsHome = profile.scriptsHome
+        }
+
+        if(!cacheDir && dslConfig.dsl.cacheDir) {
+            cacheDir = dslConfig.dsl.cacheDir
+        }
+
+        if(cacheDir && !bytecodeCache) {
+            initBytecodeCache()
         }
 
-        //enable inheritance for ExpandoMetaClass
-        if(dslConfig.dsl.emcInheritance) {
-            ExpandoMetaClass.enableGlobally()
+        includeCache = new IncludeCache(scriptsHome, profile.evaluateMethods)
+
+        if( listener.is(NoopExecutionListener.INSTANCE) && dslConfig.dsl.metrics ) {
+            initMetrics()
         }
 
 		//schema files for MetaBuilderDelegate
@@ -159,426 +291,1297 @@ public class DSLEngine  {
         }
     }
 
-    def createImportConfigration() {
-        def configuration = new CompilerConfiguration()
-        def customizer = new ImportCustomizer()
-		
-		ASTTransformationCustomizer ast
 
-        if(dslConfig.dsl.imports.imports) {
-            customizer.addImports(dslConfig.dsl.imports.imports as String[])
-        }
-        if(dslConfig.dsl.imports.starImports) {
-            customizer.addStarImports(dslConfig.dsl.imports.starImports as String[])
-        }
-        if(dslConfig.dsl.imports.staticStars) {
-            customizer.addStaticStars(dslConfig.dsl.imports.staticStars as String[])
-        }
-        if(dslConfig.dsl.imports.aliasedImports) {
-            dslConfig.dsl.imports.aliasedImports.each {
-                customizer.addImport(it.key, it.value)
-            }
-        }
-        if(dslConfig.dsl.imports.staticImports) {
-            dslConfig.dsl.imports.staticImports.each {
-                customizer.addStaticImport(it[0], it[1])
-            }
-        }
-        if(dslConfig.dsl.imports.aliasedStaticImports) {
-            dslConfig.dsl.imports.aliasedStaticImports.each {
-                customizer.addStaticImport(it.key, it.value[0],it.value[1])
-            }
-        }
+    /**
+     * 
+     */
+    private void initBytecodeCache() {
+        ClassLoader parent = Thread.currentThread().contextClassLoader ?: getClass().classLoader
+        bytecodeCache = new BytecodeCache(new File(cacheDir), new GroovyClassLoader(parent))
+    }
 
-        configuration.addCompilationCustomizers(customizer)
 
-        return configuration
+    /**
+     * Uses the ExecutionMetrics defined by the dsl.metrics entry of the config, which is shared by
+     * the engines of the profile, see EngineProfile.getMetrics()
+     */
+    private void initMetrics() {
+        listener = profile.metrics
     }
 
 
     /**
      * 
-     * @param p
-     * @return
+     * @return the ExecutionListener of the engine, NoopExecutionListener by default
      */
-    def run( Pattern p ) {
-        new File(scriptsHome).eachFileMatch(p) { File f ->
-            run(f.name)
-        }
+    public ExecutionListener getListener() {
+        return listener
     }
 
 
     /**
-     * Run script by enhancing it with EMC instance
      * 
-     * @param scriptName the name of the script file to be enhanced and run
-     * @return returns the Object(s) returned by the script
+     * @param l the ExecutionListener, null sets the NoopExecutionListener
      */
-    def run(String scriptName) {
-        log.info("running script file: $scriptName")
+    public void setListener(ExecutionListener l) {
+        listener = l ?: NoopExecutionListener.INSTANCE
+    }
 
-        assert scriptsHome, "use config file or -d in command line to define the home of your scipts"
-        def compConfig = new CompilerConfiguration()
 
-        if(dslConfig.dsl.imports) {
-            compConfig = createImportConfigration()
-        }
+    /**
+     * 
+     * @return true if the listener is not the NoopExecutionListener
+     */
+    public boolean isInstrumented() {
+        return !listener.is(NoopExecutionListener.INSTANCE)
+    }
 
-        if(dslConfig.dsl.defaultDelegate) {
-            Class clazz = null
 
-            if( dslConfig.dsl.defaultDelegate instanceof Class ) {
-                clazz = dslConfig.dsl.defaultDelegate
-            }
-            else if(dslConfig.dsl.defaultDelegate instanceof Map) {
-                clazz = dslConfig.dsl.defaultDelegate[FilenameUtils.getExtension(scriptName)]
-            }
-            else {
-                throw new RuntimeException("Type of config.dsl.defaultDelegate must be Class or Map")
-            }
+    /**
+     * Notifies the listener about the start of the probe
+     * 
+     * @param probe
+     * @param name
+     * @return the start time in nanoseconds, 0 if the engine is not instrumented
+     */
+    private long enter(ExecutionProbe probe, String name) {
+        if(listener.is(NoopExecutionListener.INSTANCE)) {
+            return 0L
+        }
 
-            assert clazz, "Could not identify class for default delegate"
+        listener.enter(probe, name)
+        return System.nanoTime()
+    }
 
-            String dslKey = getDelegateDslKey( clazz );
 
-            log.info( "Try to enhance the script with the dslKey: '$dslKey'" )
+    /**
+     * Notifies the listener about the end of the probe
+     * 
+     * @param probe
+     * @param name
+     * @param start the value returned by enter()
+     * @param error the exception thrown, or null
+     */
+    private void exit(ExecutionProbe probe, String name, long start, Throwable error) {
+        if(!listener.is(NoopExecutionListener.INSTANCE)) {
+            listener.exit(probe, name, System.nanoTime() - start, error)
+        }
+    }
 
-            //TODO: modify original Script object using GroovyScriptEngine and GroovyClassLoader.parse() (how???)
-            String scriptText = new File(scriptsHome+"/"+scriptName).text
 
-            //wraps the script with a Closure containing the default dslKey
-            return run( new GroovyShell(compConfig).evaluate( "return {->${dslKey} {${scriptText}}}" ) )
+    /**
+     * Runs the closure between enter() and exit(). The hot paths (delegate blocks, aliases) call enter() 
+     * and exit() directly to avoid the closure.
+     * 
+     * @param probe
+     * @param name
+     * @param cl
+     * @return the value returned by the closure
+     */
+    private def instrumented(ExecutionProbe probe, String name, Closure cl) {
+        if(listener.is(NoopExecutionListener.INSTANCE)) {
+            return cl()
         }
-        else {
-            //last minute initialisation of GroovyScriptEngine
-            if(!gse) {
-                gse = new GroovyScriptEngine( scriptsHome )
-            }
-            gse.config = compConfig
-            def script = gse.createScript(scriptName, context)
 
-            script.metaClass = createEMC( script.class, getEMCClosure() )
+        Throwable error = null
+        long start = enter(probe, name)
 
-            if(dslConfig.dsl.categories) {
-                use(dslConfig.dsl.categories) { 
-                    return script.run()
-                }
-            }
-            else {
-                return script.run()
-            }
+        try {
+            return cl()
+        }
+        catch (Throwable e) {
+            error = e
+            throw e
+        }
+        finally {
+            exit(probe, name, start, error)
         }
     }
 
 
     /**
-     * Run closure by enhancing it with categories and EMC instance
      * 
-     * @param cl the Closure to be enhanced and run
-     * @return returns the Object which is returned by the script
+     * @param renderer the reporter of the execution, can be null
+     * @return the reporter decorated by TimedReportRenderer if the engine is instrumented
      */
-    def run(Closure cl) {
-        log.info "run(Closure cl) "
-
-        cl.metaClass = createEMC( cl.class, getEMCClosure() )
+    private ReportRenderer getExecutionReporter(ReportRenderer renderer) {
+        return (renderer && instrumented) ? new TimedReportRenderer(renderer, listener) : renderer
+    }
 
-        cl.delegate = context
-        cl.resolveStrategy = Closure.DELEGATE_FIRST
 
-        if(dslConfig.dsl.categories) {
-            use(dslConfig.dsl.categories) { 
-                return cl()
-            }
-        }
-        else {
-            return cl()
-        }
+    /**
+     * 
+     * @return the EngineProfile shared by the DSLEngine instances using the same config
+     */
+    public EngineProfile getProfile() {
+        return profile
     }
 
 
     /**
      * 
-     * @param clazz Script or Closure to be enhanced by the EMC
-     * @param cl Closure to configure the EMC
-     * @return the ExpandoMetaClass 
+     * @return the cache of the classes of the included scripts
      */
-    private ExpandoMetaClass createEMC(Class clazz, Closure cl) {
-        ExpandoMetaClass emc = new ExpandoMetaClass(clazz, false)
+    public IncludeCache getIncludeCache() {
+        return includeCache
+    }
 
-        cl(emc)
 
-        emc.initialize()
-        return emc
+    def createImportConfigration() {
+        return profile.createImportConfigration()
     }
 
 
     /**
      * 
-     * @param config
+     * @param p
      * @return
      */
-    private Class getDelegateClazz(config) {
-        if( config instanceof Class ) {
-            return config
-        }
-        else if(config instanceof Map) {
-            return config.clazz
-        }
-        else {
-            throw new RuntimeException("Type of $config must be Class or Map")
+    def run( Pattern p ) {
+        new File(scriptsHome).eachFileMatch(p) { File f ->
+            run(f.name)
         }
     }
 
 
     /**
-     * Convention: Get the dslKey from class or configuration entry. If none exists
-     * use the lower-case name of the class removing the Delegate from the end if needed,
-     * and also inject the dslKey property
+     * Runs the matching scripts in parallel using a pool of worker threads. Each script has its own
+     * Binding (initialised with the variables of the context) and its own report, which are merged 
+     * in the order of the script names into the SimpleRenderer of the engine at the end of the batch.
      * 
-     * @param config the object retrieved from configuration object
-     * @return the dslKey string
+     * @param p the pattern of the script names
+     * @param threads the number of worker threads
+     * @return the BatchResult containing the status and time of each script
      */
-    private String getDelegateDslKey(config) {
-        Class clazz = getDelegateClazz(config)
+    public BatchResult runBatch( Pattern p, int threads ) {
+        BatchResult batch = runScripts(findScripts(p), threads)
 
-        if(clazz.metaClass.properties.find{it.name=="dslKey"} && clazz.dslKey) {
-            return clazz.dslKey
+        if(reporter instanceof SimpleRenderer) {
+            batch.writeReports((SimpleRenderer)reporter)
         }
-        else {
-            String key
+        return batch
+    }
 
-            if(config instanceof Map) {
-                key = config.dslKey
-            }
-            else if(clazz.simpleName.endsWith("Delegate")) {
-                key = clazz.simpleName.substring(0,clazz.simpleName.indexOf("Delegate")).toLowerCase()
-            }
-            else {
-                key = clazz.simpleName.toLowerCase()
-            }
 
-            //TODO: investigate why injecting dslKey crashes loads of tests
-            //clazz.metaClass.getDslKey = {-> return key }
-            return key
-        }
+    /**
+     * 
+     * @param p the pattern of the script names
+     * @return the sorted list of the matching script names in the scripts home
+     */
+    public List<String> findScripts( Pattern p ) {
+        assert scriptsHome, "use config file or -d in command line to define the home of your scipts"
+
+        List scriptNames = []
+        new File(scriptsHome).eachFileMatch(p) { File f -> scriptNames << f.name }
+
+        return scriptNames.sort()
     }
 
 
     /**
-     * Converts user-friendly alias declaration to a format usable by this class
+     * Runs the scripts in parallel like runBatch(), but the reports are only kept in the BatchResult
      * 
-     * @param dslKey
-     * @param aliasMap
+     * @param scriptNames the names of the script files
+     * @param threads the number of worker threads
+     * @return the BatchResult containing the status, time and report of each script
      */
-    private void convertAliasDefinition(String dslKey, Map aliasMap) {
-        aliasMap.each { k, list ->
-            if(k=="main") {
-                aliases[dslKey] = list
-            }
-            else {
-                list.each { alias ->
-                    aliases[dslKey+"-"+alias] = k
-                }
-            }
-        }
+    public BatchResult runScripts( List<String> scriptNames, int threads ) {
+        return runScripts(scriptNames, threads, null)
     }
 
 
     /**
-     * Finds real method to be called for the alias method name
      * 
-     * @param delegate
-     * @param aliasName the alias name of the method
-     * @return
+     * @param scriptNames the names of the script files
+     * @param threads the number of worker threads
+     * @param onResult closure called with the ScriptResult of each script when it has finished, 
+     * by the worker thread and in the order of completion, can be null
+     * @return the BatchResult containing the status, time and report of each script
      */
-    private String findAlias(delegate, String aliasName) {
-        if(aliases) {
-            try {
-                return aliases[delegate.dslKey+"-"+aliasName]
-            } catch (MissingPropertyException e) {
-                //TODO: make aliases work without the explicit declaration of dslKey in delegate class
+    public BatchResult runScripts( List<String> scriptNames, int threads, Closure onResult ) {
+        if(reporter && !(reporter instanceof SimpleRenderer)) {
+            log.warn "Reporter ${reporter.class} is shared by the scripts of the batch, its output can be interleaved"
+        }
+
+        log.info "Running ${scriptNames.size()} script(s) using $threads thread(s)"
+
+        long start = System.currentTimeMillis()
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads))
+        List results = null
+
+        try {
+            def futures = scriptNames.collect { String name ->
+                pool.submit({
+                    def result = runIsolated(name)
+                    onResult?.call(result)
+                    return result
+                } as Callable)
             }
+            results = futures*.get()
         }
-        return null
+        finally {
+            pool.shutdown()
+        }
+
+        BatchResult batch = new BatchResult(results, System.currentTimeMillis() - start)
+
+        log.info batch.toString()
+        return batch
     }
 
 
     /**
-     * Injects a number of properties and methods into the delegate class
+     * Runs the script with its own Binding and reporter, and records its status and time
      * 
-     * @param clazz the delegate class
+     * @param scriptName the name of the script file
+     * @return the ScriptResult
      */
-    private void enhanceDelegateByConvention(Class clazz) {
-		log.debug "enhanceDelegateByConvention(Class $clazz)"
-
-        //Convention: Inject 'context' property into delegate class
-		if(clazz.metaClass.properties.find{it.name=='context'}) {
-			//initContext = true
-		}
-		else {
-			clazz.metaClass.getContext = {-> return context }
-		}
+    private BatchResult.ScriptResult runIsolated(String scriptName) {
+        def result = new BatchResult.ScriptResult(scriptName: scriptName)
+        Binding binding = new Binding(new HashMap(context.variables))
 
-        //Convention: Inject 'reporter' property into delegate class
-        if(reporter) {
-            clazz.metaClass.getReporter = {-> return reporter }
-        }
+        return runIsolated(result, binding) { ExecutionContext execution -> runScript(scriptName, execution) }
+    }
 
-        //Convention: Inject 'dslAlias' property into delegate class
-        clazz.metaClass.getDslAlias = {-> return injectedAliases[delegate.class] }
 
-        //Convention: Find and call real method for the missing ones using aliases
-        clazz.metaClass.methodMissing = { String name, args ->
-            def alias = findAlias(delegate, name)
+    /**
+     * 
+     * @param result the ScriptResult to be filled in
+     * @param binding the Binding of the execution
+     * @param cl closure running the script with the ExecutionContext
+     * @return the ScriptResult
+     */
+    private BatchResult.ScriptResult runIsolated(BatchResult.ScriptResult result, Binding binding, Closure cl) {
+        StringWriter buffer = null
+        ReportRenderer renderer = reporter
 
-            if(alias) {
-                //collect types for method arguments & find method with the same signature
-                def types = args.collect {it.class} as Object[]
-                def methods = delegate.metaClass.respondsTo(delegate.class, alias, types)
+        if(reporter instanceof SimpleRenderer) {
+            buffer = new StringWriter()
+            renderer = ((SimpleRenderer)reporter).newRenderer(new PrintWriter(buffer))
+        }
 
-                if(methods) {
-                    assert 1 == methods.size(), "Ambiguous method list found for aliasing '${name}' to '${alias}'"
+        long start = System.nanoTime()
 
-                    //dynamically register this alias method so next time no methodMissing is thrown
-                    clazz.metaClass."$name" = { Object[] varArgs ->
-                        log.info("Registered alias: $name ")
+        try {
+            result.value  = cl(new ExecutionContext(this, binding, getExecutionReporter(renderer)))
+            result.status = BatchResult.Status.PASSED
+        }
+        catch (Throwable e) {
+            log.error("Script ${result.scriptName} failed", e)
+            result.error  = e
+            result.status = BatchResult.Status.FAILED
+        }
 
-                        //Set the value of dslAlias property for the time of the method call only
-                        injectedAliases[delegate.class] = name
-                        def returns = methods[0].invoke(delegate, args)
-                        injectedAliases[delegate.class] = null
-                        return returns
-                    }
+        result.time   = (System.nanoTime() - start).intdiv(1000000)
+        result.report = buffer?.toString()
 
-                    //Set the value of dslAlias property for the time of the method call only
-                    injectedAliases[delegate.class] = name
-                    def returns = methods[0].invoke(delegate, args)
-                    injectedAliases[delegate.class] = null
-                    return returns
-                }
-            }
-            throw new MissingMethodException(name, delegate.class, args)
-        }
+        return result
+    }
 
-        //Convention: For the missing property check if there is a method with no arguments, and call it
-        clazz.metaClass.propertyMissing = { String name ->
-            def methods = delegate.metaClass.respondsTo(delegate.class, name, null)
-            if(!methods) {
-                def alias = findAlias(delegate, name)
 
-                if(alias) {
-                    methods = delegate.metaClass.respondsTo(delegate.class, alias, null)
-                }
-            }
+    /**
+     * Runs the script once for each record. The script is compiled and its EMC is built only once, and each 
+     * run has its own Binding initialised with the variables of the context, the record and recordIndex 
+     * variables, and the entries of the record if it is a Map. The reports are kept like in runScripts().
+     * 
+     * @param scriptName the name of the script file
+     * @param records the input records
+     * @param threads the number of worker threads, the records are run in the calling thread if it is 1
+     * @return the BatchResult containing the status, time and report of each record
+     */
+    public BatchResult runEach( String scriptName, Iterable records, int threads ) {
+        return runRecords(scriptName, threads) { Closure submit -> records.each { submit(it) } }
+    }
 
-            if(methods) {
-                return methods[0].invoke(delegate, null)
-            }
 
-            throw new MissingPropertyException(name, delegate.class)
+    /**
+     * Runs the script once for each row of the CSV file, see runEach()
+     * 
+     * @param scriptName the name of the script file
+     * @param csvFile the input file, the rows are Maps keyed by the header
+     * @param options the options of OpenCSVCategory.openCsvEachRow(), e.g. headerRows
+     * @param threads the number of worker threads
+     * @return the BatchResult containing the status, time and report of each row
+     */
+    public BatchResult runEachCsvRow( String scriptName, File csvFile, Map options, int threads ) {
+        return runRecords(scriptName, threads) { Closure submit ->
+            //the Map of the row is reused by OpenCSVCategory
+            OpenCSVCategory.openCsvEachRow(csvFile, options) { row, i -> submit(row instanceof Map ? copyRecord(row) : row) }
         }
     }
 
 
     /**
-     * Returns a closure which calls processClosure() method of the delegate class to execute
-     * the closure defined in the DSL script
      * 
-     * @param clazz the delegate class
-     * @return closure to initialise the delegate instance
+     * @param record
+     * @return the copy of the Map including its nested Maps
      */
-    private Closure getProcessClosure(Class clazz) {
-		log.debug "getProcessClosure(Class $clazz)"
-		
-        return {  Object[] args ->
-            assert args, "Arguments of closure in DSL must not be empty"
-            def l = args.length
-
-            assert (args[l-1] instanceof Closure), "Last argument of closure must be closure"
-            Closure cl = (Closure)args[l-1]
-			
-			def delegateInstance = null
+    private static Map copyRecord(Map record) {
+        return record.collectEntries { k, v -> [k, (v instanceof Map) ? copyRecord(v) : v] }
+    }
 
-            //Construct of the delegate class
-            if(l==1) {
-                delegateInstance = clazz.newInstance()
-            }
-            else {
-                delegateInstance = clazz.newInstance(args[0..l-2] as Object[])
-            }
 
-            //if(initContext) { delegateInstance.context = context; initContext = false; }
-			return delegateInstance.processClosure(cl)
+    /**
+     * Runs the script once for each row of the query, see runEach()
+     * 
+     * @param scriptName the name of the script file
+     * @param sql the connection, e.g. Sql.newInstance("jdbc:sqlite:data.db")
+     * @param query the query of the input rows, the rows are Maps keyed by the column names
+     * @param threads the number of worker threads
+     * @return the BatchResult containing the status, time and report of each row
+     */
+    public BatchResult runEachSqlRow( String scriptName, Sql sql, String query, int threads ) {
+        return runRecords(scriptName, threads) { Closure submit ->
+            sql.eachRow(query) { row -> submit(new LinkedHashMap(row.toRowResult())) }
         }
     }
 
 
     /**
-     * Returns the closure which executes the closure defined in the DSL script by delegating
-     * the missing methods to the delegate class. The closure contains instantiation of the delegate class.
+     * At most two records per worker thread are in flight, so the source waits for the workers instead
+     * of reading all records in advance. The results are collected as they complete, and sorted by the
+     * index of the record at the end.
      * 
-     * @param clazz the delegate class
-     * @param method the delegate method, used to support aliasing
-     * @return closure to initialise the delegate instance
+     * @param scriptName the name of the script file
+     * @param threads the number of worker threads
+     * @param source closure passing each record to the closure given as its parameter
+     * @return the BatchResult
      */
-    private Closure getDelegateClosure(Class clazz, String method) {
-        return { Object[] args ->
-            assert args, "Arguments of closure in DSL must not be empty"
-            def l = args.length
+    private BatchResult runRecords( String scriptName, int threads, Closure source ) {
+        assert scriptsHome, "use config file or -d in command line to define the home of your scipts"
 
-            assert (args[l-1] instanceof Closure), "Last argument must be closure"
-            Closure cl = (Closure)args[l-1]
+        log.info "Running $scriptName for each record using $threads thread(s)"
 
-            //if class has a sharedInstance property the delegate could be in the map
-            def delegateInstance = delegatesMap[clazz]
+        Class clazz = getScriptClass(scriptName, profile.getDefaultDslKey(scriptName))
+        ExpandoMetaClass emc = getEMC(clazz)
 
-            //getDSLAlias() uses this map
-            injectedAliases[clazz] = method
+        long start = System.currentTimeMillis()
+        ExecutorService pool = (threads > 1) ? Executors.newFixedThreadPool(threads) : null
+        int maxInFlight = threads * 2
+        Semaphore inFlight = new Semaphore(maxInFlight)
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>()
+        List results = Collections.synchronizedList([])
+        int index = 0
 
-            //sharedInstance already exists so call its init() method
-            if(delegateInstance) {
-                if(l==1) {
-                    delegateInstance.initDelegate()
-                }
-                else {
-                    delegateInstance.initDelegate(args[0..l-2])
+        try {
+            source { record ->
+                int recordIndex = index++
+
+                if(!pool) {
+                    results << runRecord(scriptName, clazz, emc, record, recordIndex)
+                    return
                 }
-                cl.delegate = delegateInstance
-            }
-            //No sharedInstance exists so call the constructor of the delegate class
+
+                inFlight.acquire()
+
+                pool.execute({
+                    try {
+                        results << runRecord(scriptName, clazz, emc, record, recordIndex)
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, e)
+                    }
+                    finally {
+                        inFlight.release()
+                    }
+                } as Runnable)
+            }
+
+            if(pool) {
+                //wait for the records in flight
+                inFlight.acquire(maxInFlight)
+            }
+        }
+        finally {
+            pool?.shutdown()
+        }
+
+        if(failure.get()) {
+            throw failure.get()
+        }
+
+        results = results.sort { it.record }
+
+        BatchResult batch = new BatchResult(results, System.currentTimeMillis() - start)
+
+        log.info batch.toString()
+        return batch
+    }
+
+
+    /**
+     * 
+     * @param scriptName the name of the script file
+     * @param clazz the compiled class of the script
+     * @param emc the ExpandoMetaClass of the script class
+     * @param record the input record
+     * @param recordIndex the index of the record
+     * @return the ScriptResult
+     */
+    private BatchResult.ScriptResult runRecord(String scriptName, Class clazz, ExpandoMetaClass emc, record, int recordIndex) {
+        def result = new BatchResult.ScriptResult(scriptName: scriptName, record: recordIndex)
+        Binding binding = new Binding(new HashMap(context.variables))
+
+        if(record instanceof Map) {
+            record.each { k, v -> binding.setVariable(k as String, v) }
+        }
+        binding.setVariable("record", record)
+        binding.setVariable("recordIndex", recordIndex)
+
+        return runIsolated(result, binding) { ExecutionContext execution ->
+            def script = InvokerHelper.createScript(clazz, execution.binding)
+            script.metaClass = emc
+
+            return execute(execution) {
+                return withCategories { script.run() }
+            }
+        }
+    }
+
+
+    /**
+     * Run script by enhancing it with EMC instance
+     * 
+     * @param scriptName the name of the script file to be enhanced and run
+     * @return returns the Object(s) returned by the script
+     */
+    def run(String scriptName) {
+        return run(scriptName, null)
+    }
+
+
+    /**
+     * Run script by enhancing it with EMC instance. If a Binding is given the script has its own 
+     * execution state, so scripts can be run by many threads in parallel.
+     * 
+     * @param scriptName the name of the script file to be enhanced and run
+     * @param binding the Binding of the script, or null to use the context of the engine
+     * @return returns the Object(s) returned by the script
+     */
+    def run(String scriptName, Binding binding) {
+        return runScript(scriptName, getExecution(binding))
+    }
+
+
+    /**
+     * 
+     * @param scriptName the name of the script file to be enhanced and run
+     * @param execution the state of the execution
+     * @return returns the Object(s) returned by the script
+     */
+    private def runScript(String scriptName, ExecutionContext execution) {
+        log.info("running script file: $scriptName")
+
+        assert scriptsHome, "use config file or -d in command line to define the home of your scipts"
+
+        String dslKey = profile.getDefaultDslKey(scriptName)
+
+        if(dslKey) {
+            log.info( "Try to enhance the script with the dslKey: '$dslKey'" )
+        }
+
+        //the script is wrapped with the closure of the default dslKey (if any) during compilation
+        def script = InvokerHelper.createScript(getScriptClass(scriptName, dslKey), execution.binding)
+
+        script.metaClass = getEMC( script.class )
+
+        return execute(execution) {
+            return withCategories { script.run() }
+        }
+    }
+
+
+    /**
+     * Runs the script included by a running script (see dsl.evaluate). The compiled class of the script
+     * is cached by the path and modification time of the file, and it is run with the Binding of the caller.
+     * Circular includes are detected before the script is run.
+     * 
+     * @param scriptName the name of the included script file
+     * @return returns the Object(s) returned by the script
+     */
+    def include(String scriptName) {
+        log.info("including script file: $scriptName")
+
+        assert scriptsHome, "use config file or -d in command line to define the home of your scipts"
+
+        ExecutionContext execution = getExecution(null)
+
+        if(execution.includeStack.contains(scriptName)) {
+            throw new RuntimeException("Circular include: ${(execution.includeStack + scriptName).join(' -> ')}")
+        }
+
+        includeCache.checkCycles(scriptName)
+
+        String dslKey = profile.getDefaultDslKey(scriptName)
+        Class clazz   = includeCache.getUnitClass(scriptName) { getScriptClass(scriptName, dslKey) }
+
+        def script = InvokerHelper.createScript(clazz, execution.binding)
+
+        script.metaClass = getEMC( clazz )
+
+        execution.includeStack << scriptName
+
+        try {
+            return instrumented(ExecutionProbe.INCLUDE, scriptName) {
+                execute(execution) {
+                    return script.run()
+                }
+            }
+        }
+        finally {
+            execution.includeStack.remove(execution.includeStack.size() - 1)
+        }
+    }
+
+
+    /**
+     * 
+     * @param scriptName the name of the script file
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the compiled class of the script, either from the bytecode cache or the GroovyScriptEngine
+     */
+    private Class getScriptClass(String scriptName, String dslKey) {
+        return (Class)instrumented(ExecutionProbe.COMPILE, scriptName) {
+            if(bytecodeCache) {
+                return bytecodeCache.loadClass(new File(scriptsHome, scriptName), new File(scriptsHome),
+                                               getCacheFingerprint(dslKey), { profile.getCompilerConfiguration(dslKey) })
+            }
             else {
-                if(l==1) {
-                    cl.delegate = clazz.newInstance()
+                GroovyScriptEngine gse = getScriptEngine(dslKey)
+
+                synchronized(gse) {
+                    return gse.loadScriptByName(scriptName)
                 }
-                else {
-                    cl.delegate = clazz.newInstance(args[0..l-2] as Object[])
+            }
+        }
+    }
+
+
+    /**
+     * Returns the GroovyScriptEngine compiling with the configuration identified by its fingerprint. 
+     * Each engine keeps its own class cache, which is checked against the modification time of 
+     * the script (and its dependencies) by GroovyScriptEngine itself.
+     * 
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the GroovyScriptEngine
+     */
+    private synchronized GroovyScriptEngine getScriptEngine(String dslKey) {
+        String fingerprint = profile.getConfigurationFingerprint(dslKey)
+        GroovyScriptEngine gse = scriptEngines[fingerprint]
+
+        //last minute initialisation of GroovyScriptEngine
+        if(!gse) {
+            log.debug "Creating GroovyScriptEngine for configuration fingerprint: $fingerprint"
+
+            gse = new GroovyScriptEngine( scriptsHome )
+            gse.config = profile.getCompilerConfiguration(dslKey)
+
+            scriptEngines[fingerprint] = gse
+        }
+        return gse
+    }
+
+
+    /**
+     * Extends the configuration fingerprint with the delegate classes, as the bytecode cache
+     * outlives the JVM
+     * 
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the fingerprint string
+     */
+    private String getCacheFingerprint(String dslKey) {
+        def delegates = profile.delegates.collect { it.clazz.name }
+
+        return profile.getConfigurationFingerprint(dslKey) + "-" + BytecodeCache.hash(delegates.join(",").getBytes("UTF-8"))
+    }
+
+
+    /**
+     * Run closure by enhancing it with categories and EMC instance
+     * 
+     * @param cl the Closure to be enhanced and run
+     * @return returns the Object which is returned by the script
+     */
+    def run(Closure cl) {
+        log.info "run(Closure cl) "
+
+        ExecutionContext execution = getExecution(null)
+
+        cl.metaClass = getEMC( cl.class )
+
+        cl.delegate = execution.binding
+        cl.resolveStrategy = Closure.DELEGATE_FIRST
+
+        return execute(execution) {
+            return withCategories { cl() }
+        }
+    }
+
+
+    /**
+     * Run a clone of the closure with its own execution state, so the same closure can be run by
+     * many threads in parallel
+     * 
+     * @param cl the Closure to be enhanced and run
+     * @param binding the Binding used as the delegate of the closure
+     * @return returns the Object which is returned by the closure
+     */
+    def run(Closure cl, Binding binding) {
+        log.info "run(Closure cl, Binding binding) "
+
+        ExecutionContext execution = getExecution(binding)
+
+        Closure clone = (Closure)cl.clone()
+        clone.metaClass = getEMC( cl.class )
+
+        clone.delegate = execution.binding
+        clone.resolveStrategy = Closure.DELEGATE_FIRST
+
+        return execute(execution) {
+            return withCategories { clone() }
+        }
+    }
+
+
+    /**
+     * Runs the closure within use(categories), unless there is no category or the methods of the
+     * categories were registered in the metaClasses (dsl.categoryMode = 'metaClass')
+     * 
+     * @param cl
+     * @return the Object returned by the closure
+     */
+    private def withCategories(Closure cl) {
+        if(profile.categories && !profile.categoriesRegistered) {
+            use(profile.categories) { 
+                return cl()
+            }
+        }
+        else {
+            return cl()
+        }
+    }
+
+
+    /**
+     * Returns the state of the execution. Without Binding the current execution of the engine is reused
+     * (e.g. a script is evaluated by a running script), otherwise the context of the engine is used.
+     * 
+     * @param binding the Binding of the new execution, or null
+     * @return the ExecutionContext
+     */
+    private ExecutionContext getExecution(Binding binding) {
+        if(binding != null) {
+            //schema files for MetaBuilderDelegate
+            if( dslConfig.dsl.mbSchemaFiles && !binding.variables.containsKey("mbSchemaFiles") ) {
+                binding.mbSchemaFiles = dslConfig.dsl.mbSchemaFiles
+            }
+            return new ExecutionContext(this, binding, getExecutionReporter(reporter))
+        }
+
+        ExecutionContext current = currentExecution.get()
+
+        if(current?.engine.is(this)) {
+            return current
+        }
+
+        return new ExecutionContext(this, context, getExecutionReporter(reporter), injectedAliases, delegatesMap)
+    }
+
+
+    /**
+     * Makes the execution the current one of the thread while the closure is running.
+     * The methods and properties injected by the EMC and the conventions use the current
+     * execution, so they can be shared by many DSLEngine instances and threads.
+     * 
+     * @param execution the state of the execution
+     * @param cl the closure to be executed
+     * @return the value returned by the closure
+     */
+    private def execute(ExecutionContext execution, Closure cl) {
+        ExecutionContext previous = currentExecution.get()
+        currentExecution.set(execution)
+
+        try {
+            return cl()
+        }
+        finally {
+            currentExecution.set(previous)
+        }
+    }
+
+
+    /**
+     * 
+     * @return the DSLEngine running a script or closure in the current thread, or null
+     */
+    public static DSLEngine getCurrentEngine() {
+        return currentExecution.get()?.engine
+    }
+
+
+    /**
+     * 
+     * @return the state of the script or closure running in the current thread, or null
+     */
+    public static ExecutionContext getCurrentExecution() {
+        return currentExecution.get()
+    }
+
+
+    /**
+     * Returns the engine shared by the process for the config file and environment, it is created on
+     * the first call. It is used by the methods annotated with @UseRuntimeDSL, which run their closure
+     * with a new Binding, so the calls do not share their variables.
+     * 
+     * @param configFile path of the config file
+     * @param configEnv environment used by ConfigSlurper
+     * @return the shared DSLEngine
+     */
+    public static DSLEngine getSharedEngine(String configFile, String configEnv) {
+        String key = new File(configFile).canonicalPath + "|" + configEnv
+
+        synchronized(sharedEngines) {
+            DSLEngine engine = sharedEngines[key]
+
+            if(!engine) {
+                log.info "Creating shared DSLEngine for config:$configFile environment:$configEnv"
+
+                engine = new DSLEngine(configFile: configFile, configEnv: configEnv)
+                sharedEngines[key] = engine
+            }
+            return engine
+        }
+    }
+
+
+    /**
+     * Returns the EMC of the Script or Closure class, which is built once for each class and 
+     * EngineProfile pair, and reused by the following runs
+     * 
+     * @param clazz Script or Closure to be enhanced by the EMC
+     * @return the ExpandoMetaClass
+     */
+    private ExpandoMetaClass getEMC(Class clazz) {
+        return profile.getMetaClass(clazz) { createEMC( clazz, getEMCClosure(clazz) ) }
+    }
+
+
+    /**
+     * 
+     * @param clazz Script or Closure to be enhanced by the EMC
+     * @param cl Closure to configure the EMC
+     * @return the ExpandoMetaClass 
+     */
+    private ExpandoMetaClass createEMC(Class clazz, Closure cl) {
+        //changes are allowed after the initialization to register the keywords resolved by methodMissing
+        ExpandoMetaClass emc = new ExpandoMetaClass(clazz, false, true)
+
+        cl(emc)
+
+        if(profile.scopedInheritance) {
+            profile.inheritMetaClass(emc)
+        }
+
+        emc.initialize()
+        return emc
+    }
+
+
+    /**
+     * Finds real method to be called for the alias method name
+     * 
+     * @param delegate
+     * @param aliasName the alias name of the method
+     * @return
+     */
+    private String findAlias(delegate, String aliasName) {
+        if(profile.aliases) {
+            try {
+                return profile.aliases[delegate.dslKey+"-"+aliasName]
+            } catch (MissingPropertyException e) {
+                //TODO: make aliases work without the explicit declaration of dslKey in delegate class
+            }
+        }
+        return null
+    }
+
+
+    /**
+     * Injects a number of properties and methods into the delegate class. The injected closures
+     * use the current engine of the thread, as the delegate class is shared by all engines.
+     *
+     * @param clazz the delegate class
+     */
+    private void enhanceDelegateByConvention(Class clazz) {
+		log.debug "enhanceDelegateByConvention(Class $clazz)"
+
+        //Convention: Inject 'context' property into delegate class
+		if(clazz.metaClass.properties.find{it.name=='context'}) {
+			//initContext = true
+		}
+		else {
+			clazz.metaClass.getContext = {-> return DSLEngine.getCurrentExecution()?.binding }
+		}
+
+        //Convention: Inject 'reporter' property into delegate class
+        clazz.metaClass.getReporter = {-> return DSLEngine.getCurrentExecution()?.reporter }
+
+        //Convention: Inject 'dslAlias' property into delegate class
+        clazz.metaClass.getDslAlias = {-> return DSLEngine.getCurrentExecution()?.injectedAliases?.get(delegate.class) }
+
+        //Convention: Find and call real method for the missing ones using aliases
+        clazz.metaClass.methodMissing = { String name, args ->
+            DSLEngine engine = DSLEngine.getCurrentEngine() ?: this
+            Object[] arguments = args as Object[]
+
+            //the alias table resolves the aliases of the methods declared in the delegate class
+            MetaMethod method = engine.profile.getAliasMethod(delegate.class, name, arguments)
+
+            if(!method) {
+                def alias = engine.findAlias(delegate, name)
+
+                if(alias) {
+                    //collect types for method arguments & find method with the same signature
+                    def types = arguments.collect {it?.class} as Object[]
+                    def methods = delegate.metaClass.respondsTo(delegate, alias, types)
+
+                    if(methods) {
+                        assert 1 == methods.size(), "Ambiguous method list found for aliasing '${name}' to '${alias}'"
+                        method = methods[0]
+                    }
                 }
+            }
 
-                //if(initContext) { cl.delegate.context = context; initContext = false; }
+            if(method) {
+                return engine.invokeAlias(delegate, method, name, arguments)
+            }
+
+            throw new MissingMethodException(name, delegate.class, arguments)
+        }
+
+        //Convention: For the missing property check if there is a method with no arguments, and call it
+        clazz.metaClass.propertyMissing = { String name ->
+            def self = delegate
+            DSLEngine engine = DSLEngine.getCurrentEngine() ?: this
 
-                //if class has a sharedInstance property add the class to the delegatesMap
-                if(clazz.metaClass.properties.find{it.name=="sharedInstance"}) {
-                    delegatesMap[clazz] = cl.delegate
+            //resolution is cached by the profile until the metaClass of the delegate is modified
+            MetaMethod method = engine.profile.getPropertyMethod(self, name) {
+                def methods = self.metaClass.respondsTo(self, name, null)
+                if(!methods) {
+                    def alias = engine.findAlias(self, name)
+
+                    if(alias) {
+                        methods = self.metaClass.respondsTo(self, alias, null)
+                    }
                 }
+                return methods ? methods[0] : null
             }
-            
-            //getDSLAlias() uses this map
+
+            if(method) {
+                return method.invoke(self, null)
+            }
+
+            throw new MissingPropertyException(name, self.class)
+        }
+    }
+
+
+    /**
+     * Calls the method of the delegate resolved from its alias
+     * 
+     * @param delegateInstance
+     * @param method the resolved method
+     * @param name the alias used in the script
+     * @param args
+     * @return the value returned by the method
+     */
+    private def invokeAlias(delegateInstance, MetaMethod method, String name, Object[] args) {
+        Class clazz = delegateInstance.getClass()
+        String probeName = instrumented ? clazz.simpleName + "." + name : null
+
+        //Set the value of dslAlias property for the time of the method call only
+        Map injectedAliases = getExecution(null).injectedAliases
+
+        Throwable error = null
+        long start = enter(ExecutionProbe.ALIAS, probeName)
+
+        injectedAliases[clazz] = name
+        try {
+            return method.doMethodInvoke(delegateInstance, args)
+        }
+        catch (Throwable e) {
+            error = e
+            throw e
+        }
+        finally {
             injectedAliases[clazz] = null
+            exit(ExecutionProbe.ALIAS, probeName, start, error)
+        }
+    }
+
+
+    /**
+     * Returns a closure which calls processClosure() method of the delegate class to execute
+     * the closure defined in the DSL script
+     * 
+     * @param clazz the delegate class
+     * @return closure to initialise the delegate instance
+     */
+    private Closure getProcessClosure(Class clazz) {
+		log.debug "getProcessClosure(Class $clazz)"
+		
+        return {  Object[] args ->
+            return (DSLEngine.getCurrentEngine() ?: this).processDelegate(clazz, args)
+        }
+    }
+
+
+    /**
+     * Instantiates the delegate class and calls its processClosure() method
+     * 
+     * @param clazz the delegate class
+     * @param args the arguments of the DSL keyword, the last one is the closure
+     * @return the value returned by processClosure()
+     */
+    private def processDelegate(Class clazz, Object[] args) {
+        DelegateDescriptor descriptor = getDescriptor(clazz)
+
+        Throwable error = null
+        long start = enter(ExecutionProbe.DELEGATE, descriptor.dslKey)
+
+        try {
+            return processDelegate(descriptor, args)
+        }
+        catch (Throwable e) {
+            error = e
+            throw e
+        }
+        finally {
+            exit(ExecutionProbe.DELEGATE, descriptor.dslKey, start, error)
+        }
+    }
+
+
+    /**
+     * 
+     * @param descriptor of the delegate class
+     * @param args the arguments of the DSL keyword, the last one is the closure
+     * @return the value returned by processClosure()
+     */
+    private def processDelegate(DelegateDescriptor descriptor, Object[] args) {
+        assert args, "Arguments of closure in DSL must not be empty"
+        def l = args.length
+
+        assert (args[l-1] instanceof Closure), "Last argument of closure must be closure"
+        Closure cl = (Closure)args[l-1]
+
+        //Construct of the delegate class
+        def delegateInstance = obtainDelegate(descriptor, getConstructorArgs(args))
+
+        def returns = null
+
+        try {
+            //if(initContext) { delegateInstance.context = context; initContext = false; }
+            returns = delegateInstance.processClosure(cl)
+        }
+        finally {
+            //the instance returned to the script cannot be reused
+            if(!returns.is(delegateInstance)) {
+                releaseDelegate(descriptor, delegateInstance)
+            }
+        }
+        return returns
+    }
+
+
+    /**
+     * 
+     * @param args the arguments of the DSL keyword, the last one is the closure
+     * @return the arguments without the closure
+     */
+    private static Object[] getConstructorArgs(Object[] args) {
+        int l = args.length - 1
+
+        if(l == 0) {
+            return NO_ARGS
+        }
+
+        Object[] constructorArgs = new Object[l]
+        System.arraycopy(args, 0, constructorArgs, 0, l)
+        return constructorArgs
+    }
+
+
+    /**
+     * Convention: instances of delegate classes having resetDelegate() method are taken from the pool
+     * and reset with the arguments of the constructor, otherwise a new instance is constructed
+     * 
+     * @param descriptor of the delegate class
+     * @param args the arguments of the constructor
+     * @return the delegate instance
+     */
+    private def obtainDelegate(DelegateDescriptor descriptor, Object[] args) {
+        if(descriptor.resetDelegate) {
+            def pooled = delegatePools[descriptor.clazz]?.poll()
+
+            if(pooled != null) {
+                descriptor.reset(pooled, args)
+                return pooled
+            }
+        }
+        return descriptor.newInstance(args)
+    }
+
+
+    /**
+     * Puts the delegate instance back to the pool, if the delegate class supports pooling.
+     * The pool is limited by the dsl.delegatePoolSize entry of the config. Only the instances which
+     * are not returned to the script are released.
+     * 
+     * @param descriptor of the delegate class
+     * @param instance the delegate instance which is not used anymore
+     */
+    private void releaseDelegate(DelegateDescriptor descriptor, instance) {
+        if(!descriptor.resetDelegate || descriptor.sharedInstance) {
+            return
+        }
+
+        Queue pool = null
+
+        synchronized(delegatePools) {
+            pool = delegatePools[descriptor.clazz]
+
+            if(pool == null) {
+                pool = new ConcurrentLinkedQueue()
+                delegatePools[descriptor.clazz] = pool
+            }
+        }
+
+        if(pool.size() < descriptor.poolSize) {
+            pool.offer(instance)
+        }
+    }
+
+
+    /**
+     * Returns the closure which executes the closure defined in the DSL script by delegating
+     * the missing methods to the delegate class. The closure contains instantiation of the delegate class.
+     * 
+     * @param clazz the delegate class
+     * @param method the delegate method, used to support aliasing
+     * @return closure to initialise the delegate instance
+     */
+    private Closure getDelegateClosure(Class clazz, String method) {
+        return { Object[] args ->
+            return (DSLEngine.getCurrentEngine() ?: this).runDelegate(clazz, method, args)
+        }
+    }
+
+
+    /**
+     * Instantiates the delegate class (or reuses its shared instance) and executes the closure 
+     * by delegating the missing methods to the delegate instance
+     * 
+     * @param clazz the delegate class
+     * @param method the delegate method, used to support aliasing
+     * @param args the arguments of the DSL keyword, the last one is the closure
+     * @return the delegate instance
+     */
+    private def runDelegate(Class clazz, String method, Object[] args) {
+        Throwable error = null
+        DelegateDescriptor descriptor = getDescriptor(clazz)
+        long start = enter(ExecutionProbe.DELEGATE, descriptor.dslKey)
+
+        try {
+            return runDelegate(descriptor, method, args)
+        }
+        catch (Throwable e) {
+            error = e
+            throw e
+        }
+        finally {
+            exit(ExecutionProbe.DELEGATE, descriptor.dslKey, start, error)
+        }
+    }
+
+
+    /**
+     * 
+     * @param descriptor of the delegate class
+     * @param method the delegate method, used to support aliasing
+     * @param args the arguments of the DSL keyword, the last one is the closure
+     * @return the delegate instance, or the value of its detachDelegate() method if it is pooled
+     */
+    private def runDelegate(DelegateDescriptor descriptor, String method, Object[] args) {
+        assert args, "Arguments of closure in DSL must not be empty"
+        def l = args.length
+
+        assert (args[l-1] instanceof Closure), "Last argument must be closure"
+        Closure cl = (Closure)args[l-1]
+
+        Class clazz = descriptor.clazz
+
+        ExecutionContext execution = getExecution(null)
+        Map injectedAliases = execution.injectedAliases
 
-            if(clazz.metaClass.properties.find{it.name=="delegateMethods"}) {
-                cl.delegate.addDelegateMethods(clazz.delegateMethods)
+        //if class has a sharedInstance property the delegate could be in the map
+        def delegateInstance = descriptor.sharedInstance ? execution.sharedDelegates[clazz] : null
+
+        //getDSLAlias() uses this map
+        injectedAliases[clazz] = method
+
+        //sharedInstance already exists so call its init() method
+        if(delegateInstance) {
+            if(l==1) {
+                delegateInstance.initDelegate()
+            }
+            else {
+                delegateInstance.initDelegate(args[0..l-2])
             }
+            cl.delegate = delegateInstance
+        }
+        //No sharedInstance exists so call the constructor of the delegate class
+        else {
+            cl.delegate = obtainDelegate(descriptor, getConstructorArgs(args))
+
+            //if(initContext) { cl.delegate.context = context; initContext = false; }
+
+            //if class has a sharedInstance property add the class to the shared delegates of the execution
+            if(descriptor.sharedInstance) {
+                execution.sharedDelegates[clazz] = cl.delegate
+            }
+        }
+        
+        //getDSLAlias() uses this map
+        injectedAliases[clazz] = null
+
+        if(descriptor.delegateMethods) {
+            cl.delegate.addDelegateMethods(descriptor.delegateMethods)
+        }
+
+        cl.resolveStrategy = Closure.DELEGATE_FIRST
+
+        //the instance returned to the script cannot be reused, so only detached results release it
+        boolean pooled = descriptor.resetDelegate && descriptor.detachDelegate && !descriptor.sharedInstance
+        def instance = cl.delegate
 
-            cl.resolveStrategy = Closure.DELEGATE_FIRST
+        try {
             cl()
 
-            if(clazz.metaClass.methods.find{it.name=="destroyDelegate"}) {
+            if(descriptor.destroyDelegate) {
                 injectedAliases[clazz] = method
-                cl.delegate.destroyDelegate()
+                instance.destroyDelegate()
                 injectedAliases[clazz] = null
             }
 
-            return cl.delegate
+            return pooled ? instance.detachDelegate() : instance
+        }
+        finally {
+            if(pooled) {
+                releaseDelegate(descriptor, instance)
+            }
+        }
+    }
+
+
+    /**
+     * 
+     * @param clazz the delegate class
+     * @return the DelegateDescriptor of the class computed by the profile
+     */
+    private DelegateDescriptor getDescriptor(Class clazz) {
+        DelegateDescriptor descriptor = profile.getDelegate(clazz)
+        assert descriptor, "$clazz is not a delegate of the DSL config"
+
+        applyConventions(descriptor)
+        return descriptor
+    }
+
+
+    /**
+     * Enhances the delegate class by the conventions when it is used the first time, 
+     * or its metaClass was replaced since
+     * 
+     * @param descriptor of the delegate class
+     */
+    private void applyConventions(DelegateDescriptor descriptor) {
+        Class clazz = descriptor.clazz
+        MetaClassRegistry registry = GroovySystem.metaClassRegistry
+
+        if(!descriptor.conventionMetaClass.is(registry.getMetaClass(clazz))) {
+            synchronized(descriptor) {
+                if(!descriptor.conventionMetaClass.is(registry.getMetaClass(clazz))) {
+                    enhanceDelegateByConvention(clazz)
+
+                    MetaClass mc = registry.getMetaClass(clazz)
+
+                    if(profile.scopedInheritance && mc instanceof ExpandoMetaClass) {
+                        profile.inheritMetaClass(mc)
+                    }
+                    descriptor.conventionMetaClass = mc
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Runs the delegate of the keyword which was not registered in the EMC of the script or closure,
+     * because it was not known to be used when the EMC was built
+     * 
+     * @param self the script or closure
+     * @param name the name of the missing method
+     * @param args the arguments of the missing method
+     * @return the value returned by the delegate
+     */
+    private def invokeKeyword(Object self, String name, Object[] args) {
+        DelegateDescriptor descriptor = profile.getKeywordDelegate(name)
+
+        if(!descriptor) {
+            //the method of a closure is looked for in its owner as well
+            throw new MissingMethodException(name, (self instanceof Closure) ? self.owner.getClass() : self.getClass(), args)
+        }
+
+        if(descriptor.processClosure) {
+            return processDelegate(descriptor.clazz, args)
+        }
+        else {
+            return runDelegate(descriptor.clazz, name, args)
+        }
+    }
+
+
+    /**
+     * Entry point of the DSL calls wired by DSLWiringTransformation during compilation. The delegate 
+     * of the enclosing closure is checked first to keep the DELEGATE_FIRST semantics, and the runtime
+     * path is used if the script is not run by a DSLEngine.
+     * 
+     * @param self the script (or the class) containing the call
+     * @param closureDelegate the delegate of the enclosing closure, null for calls outside of closures
+     * @param clazz the delegate class
+     * @param method the dslKey or its alias used in the script
+     * @param args the arguments of the DSL keyword, the last one is the closure
+     * @return the value returned by the delegate
+     */
+    public static def invokeDelegate(Object self, Object closureDelegate, Class clazz, String method, Object[] args) {
+        if(closureDelegate != null && !closureDelegate.is(self) && !(closureDelegate instanceof Binding) && 
+           closureDelegate.metaClass.respondsTo(closureDelegate, method, args)) {
+            return InvokerHelper.invokeMethod(closureDelegate, method, args)
+        }
+
+        DSLEngine engine = getCurrentEngine()
+
+        DelegateDescriptor descriptor = engine?.profile?.getDelegate(clazz)
+
+        if(!descriptor) {
+            return InvokerHelper.invokeMethod(self, method, args)
+        }
+
+        if(descriptor.processClosure) {
+            return engine.processDelegate(clazz, args)
+        }
+        else {
+            return engine.runDelegate(clazz, method, args)
         }
     }
 
@@ -592,7 +1595,7 @@ public class DSLEngine  {
      * @return closure to initialise the delegate instance
      */
     private Closure getMethodClosure(Class clazz, String method) {
-        if(clazz.metaClass.methods.find {it.name == "processClosure"}) {
+        if(profile.getDelegate(clazz)?.processClosure) {
             //Convention: delegate class have processClosure() method to processes the content of the closure
             return getProcessClosure(clazz)
         }
@@ -604,51 +1607,46 @@ public class DSLEngine  {
 
 
     /**
-     * Creates the closure to configure the EMC
+     * Creates the closure to configure the EMC. Only the keywords used by the script are registered 
+     * (see DSLKeywordCollector), the other keywords, and all keywords of the closures compiled elsewhere
+     * are resolved by the methodMissing of the EMC.
      *
+     * @param clazz the Script or Closure class
      * @return closure to configure the EMC
      */
-    private Closure getEMCClosure() {
+    private Closure getEMCClosure(Class clazz) {
         return { ExpandoMetaClass emc ->
-            //TODO: implement convention to discover classes by looking for Delegate in their names, or listing classes in delegates source directory
-            if(!dslConfig.dsl.delegates) {
-                log.warn("NO delegate class was specified in DSL Config file")
-            }
-
             //Add these methods in case the DSL needs to support evaluate/include
-            dslConfig.dsl?.evaluate.each { evalMethod ->
+            profile.evaluateMethods.each { evalMethod ->
 
                 log.info("Adding evaluate methods to ECM: $evalMethod")
 
-                emc."$evalMethod" = { String file -> run(file) }
-                emc."$evalMethod" = { Closure cl -> run(cl) }
+                emc."$evalMethod" = { String file -> (DSLEngine.getCurrentEngine() ?: this).include(file) }
+                emc."$evalMethod" = { Closure cl -> (DSLEngine.getCurrentEngine() ?: this).run(cl) }
             }
 
-            dslConfig.dsl?.delegates.each { delegateConfig ->
+            profile.getScriptKeywords(clazz)?.each { String keyword ->
+                DelegateDescriptor delegate = profile.getKeywordDelegate(keyword)
 
-                log.info("dslConfig.dsl.delegates.each: $delegateConfig")
+                if(delegate) {
+                    log.info("Adding keyword to EMC: $keyword")
 
-                def clazz   = getDelegateClazz(delegateConfig)
-                def dslKey  = getDelegateDslKey(delegateConfig)
-                def methods = [dslKey]
-
-                //If the delegate class has the aliases property, make this names available to missingMethod()
-                if(clazz.metaClass.properties.find{it.name=="aliases"} && clazz.aliases) {
-                    convertAliasDefinition( dslKey, clazz.aliases )
-                }
-
-                //add the alias method names to the list of EMC methods if any alias exists
-                if(aliases[dslKey]) {
-                    methods += aliases[dslKey]
+                    //Adds method to ECM which instantiates the delegates and runs the closure pseed as input parameter
+                    emc."$keyword" = getMethodClosure(delegate.clazz, keyword)
                 }
+            }
 
-                log.info("ECM method names including aliases: $methods")
+            if(profile.delegates) {
+                emc.methodMissing = { String name, args ->
+                    DelegateDescriptor descriptor = profile.getKeywordDelegate(name)
 
-                enhanceDelegateByConvention(clazz)
+                    if(descriptor) {
+                        log.info("Adding missing keyword to EMC: $name")
 
-                //Adds method to ECM which instantiates the delegates and runs the closure pseed as input parameter
-                methods.each { method ->
-                    emc."$method" = getMethodClosure(clazz, method)
+                        //the keyword is registered on its first call, so the following calls are resolved by the EMC
+                        emc."$name" = getMethodClosure(descriptor.clazz, name)
+                    }
+                    return (DSLEngine.getCurrentEngine() ?: this).invokeKeyword(delegate, name, args as Object[])
                 }
             }
         }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import org.codehaus.groovy.ast.ClassNode
+import org.codehaus.groovy.ast.MethodNode
+import org.codehaus.groovy.ast.Parameter
+import org.codehaus.groovy.ast.expr.ArgumentListExpression
+import org.codehaus.groovy.ast.expr.ClosureExpression
+import org.codehaus.groovy.ast.expr.MethodCallExpression
+import org.codehaus.groovy.ast.expr.VariableExpression
+import org.codehaus.groovy.ast.stmt.BlockStatement
+import org.codehaus.groovy.ast.stmt.ExpressionStatement
+import org.codehaus.groovy.ast.stmt.Statement
+import org.codehaus.groovy.classgen.GeneratorContext
+import org.codehaus.groovy.control.CompilePhase
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.control.customizers.CompilationCustomizer
+
+
+/**
+ * Wraps the statements of a script into the closure of the default delegate, i.e. the script
+ * is compiled as if it was written as <code>dslKey { ... }</code>. The original statements are
+ * moved into the closure, so line numbers of the script are kept.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class DefaultDelegateCustomizer extends CompilationCustomizer {
+
+    final String dslKey
+
+
+    /**
+     *
+     * @param key the dslKey of the default delegate
+     */
+    public DefaultDelegateCustomizer(String key) {
+        super(CompilePhase.CONVERSION)
+        assert key, "dslKey of default delegate must be specified"
+        dslKey = key
+    }
+
+
+    /**
+     *
+     */
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+        if(!classNode.isScript()) {
+            return
+        }
+
+        MethodNode runMethod = classNode.getMethod("run", Parameter.EMPTY_ARRAY)
+
+        if(!runMethod || !(runMethod.code instanceof BlockStatement)) {
+            log.warn "Script class ${classNode.name} has no run() method to be wrapped"
+            return
+        }
+
+        BlockStatement code = (BlockStatement)runMethod.code
+        List<Statement> statements = code.statements
+
+        log.debug "Wrapping ${statements.size()} statement(s) of ${classNode.name} with dslKey: '$dslKey'"
+
+        ClosureExpression cl = new ClosureExpression(
+            Parameter.EMPTY_ARRAY,
+            new BlockStatement(new ArrayList<Statement>(statements), code.variableScope)
+        )
+        cl.setSourcePosition(code)
+
+        MethodCallExpression call = new MethodCallExpression(
+            VariableExpression.THIS_EXPRESSION,
+            dslKey,
+            new ArgumentListExpression(cl)
+        )
+        call.implicitThis = true
+        call.setSourcePosition(code)
+
+        ExpressionStatement wrapper = new ExpressionStatement(call)
+        wrapper.setSourcePosition(code)
+
+        statements.clear()
+        statements.add(wrapper)
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ConcurrentHashMap
+
+import org.codehaus.groovy.reflection.CachedConstructor
+import org.codehaus.groovy.reflection.ReflectionCache
+import org.codehaus.groovy.runtime.MetaClassHelper
+
+
+/**
+ * Result of the convention checks of a delegate class: dslKey, EMC method names, lifecycle hooks,
+ * shared instance, delegate methods and the alias dispatch table. It is computed once by EngineProfile,
+ * so DSLEngine does not need to scan the metaClass of the delegate when a DSL block is executed.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+final class DelegateDescriptor {
+
+    final Class clazz
+    final String dslKey
+
+    /**
+     * The dslKey and its main aliases, i.e. the names of the EMC methods
+     */
+    final List methods
+
+    /**
+     * Convention: delegate class has processClosure() method to processes the content of the closure
+     */
+    final boolean processClosure
+
+    final boolean initDelegate
+    final boolean destroyDelegate
+
+    /**
+     * Convention: delegate class has sharedInstance property, so the instance is reused
+     */
+    final boolean sharedInstance
+
+    /**
+     * Value of the delegateMethods property, or null
+     */
+    final List delegateMethods
+
+    /**
+     * Convention: delegate class has resetDelegate() method, so its instances can be pooled and reused
+     * by the following DSL blocks instead of constructing new ones
+     */
+    final boolean resetDelegate
+
+    /**
+     * Convention: pooled delegate class has detachDelegate() method, so the DSL block returns its value
+     * and the instance can be put back to the pool
+     */
+    final boolean detachDelegate
+
+    /**
+     * Maximum number of pooled instances, the dsl.delegatePoolSize entry of the config
+     */
+    final int poolSize
+
+    public static final int DEFAULT_POOL_SIZE = 16
+
+    /**
+     * The metaClass of the delegate class enhanced by the conventions of DSLEngine. The class
+     * is enhanced again if its metaClass was replaced.
+     */
+    volatile MetaClass conventionMetaClass = null
+
+    /**
+     * CachedConstructors and resetDelegate() MetaMethods grouped by arity
+     */
+    private final Map constructors
+    private final Map resetMethods
+
+    /**
+     * Constructors and resetDelegate() methods selected for the argument types, used if an arity has
+     * more than one candidate
+     */
+    private final Map constructorSignatures = new ConcurrentHashMap()
+    private final Map resetSignatures = new ConcurrentHashMap()
+
+    private static final Object UNRESOLVED = new Object()
+
+    /**
+     * Alias to the Map of arity and List of MetaMethods of the real method
+     */
+    private final Map aliasTable
+
+
+    /**
+     *
+     * @param delegateClazz the delegate class
+     * @param key the dslKey of the delegate
+     * @param aliasMap the converted alias definitions of all delegates
+     */
+    public DelegateDescriptor(Class delegateClazz, String key, Map aliasMap) {
+        this(delegateClazz, key, aliasMap, DEFAULT_POOL_SIZE)
+    }
+
+
+    /**
+     *
+     * @param delegateClazz the delegate class
+     * @param key the dslKey of the delegate
+     * @param aliasMap the converted alias definitions of all delegates
+     * @param maxPooled the maximum number of pooled instances
+     */
+    public DelegateDescriptor(Class delegateClazz, String key, Map aliasMap, int maxPooled) {
+        clazz    = delegateClazz
+        dslKey   = key
+        poolSize = maxPooled
+
+        MetaClass mc = clazz.metaClass
+        Set methodNames   = mc.methods*.name as Set
+        Set propertyNames = mc.properties*.name as Set
+
+        methods = ([dslKey] + (aliasMap[dslKey] ?: [])).asImmutable()
+
+        processClosure  = methodNames.contains("processClosure")
+        initDelegate    = methodNames.contains("initDelegate")
+        destroyDelegate = methodNames.contains("destroyDelegate")
+        sharedInstance  = propertyNames.contains("sharedInstance")
+
+        delegateMethods = (propertyNames.contains("delegateMethods") && clazz.delegateMethods) ? (clazz.delegateMethods as List).asImmutable() : null
+
+        resetDelegate  = methodNames.contains("resetDelegate")
+        detachDelegate = methodNames.contains("detachDelegate")
+
+        constructors = groupByArity(ReflectionCache.getCachedClass(clazz).constructors as List)
+        resetMethods = groupByArity(mc.methods.findAll { it.name == "resetDelegate" })
+
+        aliasTable = createAliasTable(mc, aliasMap)
+
+        log.debug "$clazz - dslKey: '$dslKey', processClosure: $processClosure, sharedInstance: $sharedInstance, resetDelegate: $resetDelegate"
+    }
+
+
+    /**
+     *
+     * @param methods list of MetaMethods or CachedConstructors
+     * @return immutable Map of arity and immutable List of methods
+     */
+    private static Map groupByArity(List methods) {
+        def arities = [:]
+
+        methods.each { method ->
+            int arity = method.parameterTypes.length
+            arities[arity] = (arities[arity] ?: []) + method
+        }
+
+        return arities.collectEntries { k, v -> [k, v.asImmutable()] }.asImmutable()
+    }
+
+
+    /**
+     * Selects the method or constructor for the arguments. If there is only one candidate
+     * for the arity, it is only validated, otherwise the selection is cached by the argument types.
+     *
+     * @param byArity Map of arity and List of candidates
+     * @param signatures cache of the selections
+     * @param args the arguments
+     * @return the MetaMethod, the CachedConstructor or null
+     */
+    private static def select(Map byArity, Map signatures, Object[] args) {
+        List candidates = byArity[args.length]
+
+        if(!candidates) {
+            return null
+        }
+        else if(candidates.size() == 1) {
+            return candidates[0].isValidMethod(args) ? candidates[0] : null
+        }
+
+        List signature = Arrays.asList(MetaClassHelper.convertToTypeArray(args))
+        def selected = signatures[signature]
+
+        if(selected == null) {
+            def valid = candidates.findAll { it.isValidMethod(args) }
+            selected = (valid.size() == 1) ? valid[0] : UNRESOLVED
+            signatures[signature] = selected
+        }
+
+        return selected.is(UNRESOLVED) ? null : selected
+    }
+
+
+    /**
+     * Resolves the aliases of the delegate class to the MetaMethods of the real methods, grouped by arity
+     *
+     * @param mc the metaClass of the delegate class
+     * @param aliasMap the converted alias definitions
+     * @return the alias table
+     */
+    private Map createAliasTable(MetaClass mc, Map aliasMap) {
+        def table = [:]
+        String prefix = dslKey + "-"
+
+        aliasMap.each { String key, value ->
+            if(key.startsWith(prefix)) {
+                table[key.substring(prefix.length())] = groupByArity(mc.methods.findAll { it.name == value })
+            }
+        }
+
+        return table.asImmutable()
+    }
+
+
+    /**
+     * Finds the real method of the alias in the alias table. Methods added to the metaClass
+     * of the delegate at runtime are not in the table.
+     *
+     * @param alias the alias name of the method
+     * @param args the arguments of the call
+     * @return the MetaMethod or null if the alias could not be resolved by the table
+     */
+    public MetaMethod getAliasMethod(String alias, Object[] args) {
+        List candidates = aliasTable[alias]?.get(args.length)
+
+        if(!candidates) {
+            return null
+        }
+        else if(candidates.size() == 1) {
+            return candidates[0].isValidMethod(args) ? candidates[0] : null
+        }
+        else {
+            def valid = candidates.findAll { it.isValidMethod(args) }
+            return valid.size() == 1 ? valid[0] : null
+        }
+    }
+
+
+    /**
+     * Instantiates the delegate class using the constructor cached for the arguments
+     *
+     * @param args the arguments of the constructor
+     * @return the new delegate instance
+     */
+    public Object newInstance(Object[] args) {
+        CachedConstructor constructor = select(constructors, constructorSignatures, args)
+
+        if(constructor) {
+            return constructor.doConstructorInvoke(args)
+        }
+
+        //let groovy find the constructor, e.g. for varargs
+        return clazz.newInstance(args)
+    }
+
+
+    /**
+     * Calls the resetDelegate() method of a pooled instance with the arguments of the constructor
+     *
+     * @param instance the delegate instance taken from the pool
+     * @param args the arguments of the DSL keyword without the closure
+     */
+    public void reset(Object instance, Object[] args) {
+        MetaMethod method = select(resetMethods, resetSignatures, args)
+
+        if(method) {
+            method.doMethodInvoke(instance, args)
+        }
+        else {
+            instance.invokeMethod("resetDelegate", args)
+        }
+    }
+}
@@ -0,0 +1,841 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import java.lang.ref.SoftReference
+import java.lang.ref.WeakReference
+import java.lang.reflect.Method
+import java.lang.reflect.Modifier
+
+import org.apache.commons.io.FilenameUtils
+import org.beedom.dslforge.ast.global.DSLKeywordCollector
+import org.beedom.dslforge.ast.global.DSLWiringTransformation
+import org.beedom.dslforge.ast.local.DslDelegate
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.customizers.ImportCustomizer
+import org.codehaus.groovy.reflection.CachedMethod
+
+
+/**
+ * Everything DSLEngine computes from the DSL config: the resolved delegate classes, their dslKeys and
+ * alias tables, the compiler configurations and the categories. It is built once, it is not modified
+ * afterwards, so many DSLEngine instances running in many threads can share the same profile.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+final class EngineProfile {
+
+    /**
+     * Profiles loaded from config files, keyed by the path and environment
+     */
+    private static final Map loadedProfiles = [:]
+
+    /**
+     * Resource listing the classes annotated by @DslDelegate, one class name per line
+     */
+    public static final String DELEGATE_INDEX = "META-INF/dslforge/delegates"
+
+    /**
+     * Category classes which methods were registered in the metaClasses, they are only registered once in the JVM,
+     * and the engines which configs do not list the category cannot call them
+     */
+    private static final Set registeredCategories = new HashSet()
+
+    /**
+     * The parsed config. It shall be treated as read-only.
+     */
+    final ConfigObject config
+
+    final String scriptsHome
+
+    /**
+     * True if dsl.emcInheritance is 'scoped': only the ExpandoMetaClasses of the delegate, Script and
+     * Closure classes used by the engine inherit the methods of their superclasses
+     */
+    final boolean scopedInheritance
+
+    /**
+     * List of DelegateDescriptors in the order of the config
+     */
+    final List<DelegateDescriptor> delegates
+    private final Map delegatesByClass
+
+    /**
+     * dslKeys and main aliases (i.e. the EMC method names) to the DelegateDescriptor
+     */
+    private final Map keywordDelegates
+
+    /**
+     * Aliases of all delegates: 'dslKey' to the List of aliases of the dslKey and
+     * 'dslKey-alias' to the name of the real method
+     */
+    final Map aliases
+
+    final List evaluateMethods
+    final List categories
+
+    /**
+     * True if dsl.categoryMode is 'metaClass': the methods of the categories are registered in the
+     * metaClasses of their self types when the profile is built, and the runs do not call use(categories)
+     */
+    final boolean categoriesRegistered
+
+    /**
+     * CompilerConfiguration and its fingerprint for each default dslKey, the empty string is used
+     * if there is no default delegate
+     */
+    private final Map compilerConfigurations
+    private final Map fingerprints
+
+    /**
+     * Hash of the bytecode of the delegate classes, so the bytecode cache is invalidated if a delegate
+     * class is changed without being renamed
+     */
+    private final String delegatesHash
+
+    /**
+     * WeakReferences to the ExpandoMetaClass instances of Script and Closure classes built by DSLEngine.
+     * The EMC refers to its class, so it cannot be the value of the WeakHashMap. It is kept alive by the
+     * scripts and closures using it, and the classes of modified scripts can be garbage collected.
+     */
+    private final Map metaClasses = Collections.synchronizedMap(new WeakHashMap())
+
+    /**
+     * SoftReferences to the zero-argument methods resolved by propertyMissing, keyed by the metaClass of
+     * the delegate. Each entry records the version of the metaClass, so the methods are resolved again if
+     * the metaClass is modified. The methods refer to the delegate class, so the entries are only kept
+     * until the memory is needed.
+     */
+    private final Map propertyMethods = Collections.synchronizedMap(new WeakHashMap())
+
+    /**
+     * ExecutionMetrics of the dsl.metrics entry shared by the engines of the profile, and its exporters
+     */
+    private ExecutionMetrics metrics = null
+    private final List exporters = []
+
+    private static final Object UNRESOLVED = new Object()
+
+
+    /**
+     *
+     * @param dslConfig the parsed DSL config
+     */
+    public EngineProfile(ConfigObject dslConfig) {
+        assert dslConfig != null, "DSL config must not be null"
+
+        log.debug "Building EngineProfile"
+
+        scopedInheritance = (dslConfig.dsl.emcInheritance == "scoped")
+
+        //enable inheritance for ExpandoMetaClass, before any metaClass of the delegates is used
+        if(dslConfig.dsl.emcInheritance && !scopedInheritance) {
+            ExpandoMetaClass.enableGlobally()
+        }
+
+        config      = dslConfig
+        scriptsHome = dslConfig.dsl.scripts ?: null
+
+        List delegateConfigs = (dslConfig.dsl.delegates ?: []) as List
+
+        if(dslConfig.dsl.delegateIndex) {
+            def configured = delegateConfigs.collect { getDelegateClazz(it) } as Set
+            delegateConfigs += loadDelegateIndex().findAll { !configured.contains(it) }
+        }
+
+        if(!delegateConfigs) {
+            log.warn("NO delegate class was specified in DSL Config file")
+        }
+
+        def aliasMap = [:]
+        def delegateList = []
+        int poolSize = (dslConfig.dsl.delegatePoolSize ?: DelegateDescriptor.DEFAULT_POOL_SIZE) as int
+
+        delegateConfigs.each { delegateConfig ->
+            Class clazz   = getDelegateClazz(delegateConfig)
+            String dslKey = getDelegateDslKey(delegateConfig)
+
+            //If the delegate class has the aliases property, make this names available to missingMethod()
+            if(clazz.metaClass.hasProperty(clazz, "aliases") && clazz.aliases) {
+                convertAliasDefinition( aliasMap, dslKey, clazz.aliases )
+            }
+
+            DelegateDescriptor descriptor = new DelegateDescriptor(clazz, dslKey, aliasMap, poolSize)
+
+            log.info("Delegate $clazz, EMC method names including aliases: ${descriptor.methods}")
+
+            delegateList << descriptor
+        }
+
+        delegates        = delegateList.asImmutable()
+        delegatesByClass = delegateList.collectEntries { [it.clazz, it] }.asImmutable()
+        keywordDelegates = delegateList.collectEntries { d -> d.methods.collectEntries { [it, d] } }.asImmutable()
+        aliases          = aliasMap.asImmutable()
+        evaluateMethods = (dslConfig.dsl?.evaluate ?: []).asImmutable()
+        categories      = (dslConfig.dsl.categories ?: []).asImmutable()
+
+        categoriesRegistered = categories && dslConfig.dsl.categoryMode == "metaClass"
+
+        if(categoriesRegistered) {
+            registerCategories(categories)
+        }
+
+        delegatesHash = hashDelegateClasses()
+
+        def configurations = [:]
+        def prints = [:]
+
+        getDefaultDelegates().each { Class clazz ->
+            String dslKey = getDelegateDslKey(clazz)
+            configurations[dslKey] = createCompilerConfiguration(dslKey)
+            prints[dslKey] = createFingerprint(dslKey)
+        }
+        configurations[""] = createCompilerConfiguration(null)
+        prints[""] = createFingerprint(null)
+
+        compilerConfigurations = configurations.asImmutable()
+        fingerprints           = prints.asImmutable()
+    }
+
+
+    /**
+     * Returns the shared profile of the config file. The file is parsed again only if it was modified.
+     * Profiles are shared for each cache directory, and the compiled config is checked in the cache each time,
+     * so it is written again if the cache was cleared.
+     *
+     * @param configFile path of the config file
+     * @param configEnv environment used by ConfigSlurper
+     * @param cache optional BytecodeCache to load the compiled config script
+     * @return the EngineProfile
+     */
+    public static synchronized EngineProfile forConfig(String configFile, String configEnv, BytecodeCache cache) {
+        File file  = new File(configFile)
+        String key = file.canonicalPath + "|" + configEnv + "|" + (cache ? cache.directory.canonicalPath : "")
+
+        Class configClazz = cache ? cache.loadClass(file, "config", { new CompilerConfiguration() }) : null
+        def loaded = loadedProfiles[key]
+
+        if(loaded && loaded.modified == file.lastModified() && loaded.configClazz == configClazz) {
+            return loaded.profile
+        }
+
+        log.debug("Loading config:$configFile for environment:$configEnv")
+
+        URL configURL = file.toURI().toURL()
+        ConfigObject dslConfig = null
+
+        if(configClazz) {
+            dslConfig = new ConfigSlurper(configEnv).parse((Script)configClazz.newInstance(), configURL)
+        }
+        else {
+            dslConfig = new ConfigSlurper(configEnv).parse(configURL)
+        }
+
+        EngineProfile profile = new EngineProfile(dslConfig)
+
+        //the engines using the replaced profile keep recording, but it is not exported anymore
+        loaded?.profile?.stopMetrics()
+        loadedProfiles[key] = [modified: file.lastModified(), configClazz: configClazz, profile: profile]
+
+        return profile
+    }
+
+
+    /**
+     *
+     * @param configFile path of the config file
+     * @param configEnv environment used by ConfigSlurper
+     * @return the EngineProfile
+     */
+    public static EngineProfile forConfig(String configFile, String configEnv) {
+        return forConfig(configFile, configEnv, null)
+    }
+
+
+    /**
+     * Registers the public static methods of the category classes as instance methods in the
+     * ExpandoMetaClass of the type of their first parameter, the same way DefaultGroovyMethods are added
+     * to the classes. Unlike use(categories), the methods are visible for all threads, but only while an
+     * engine is running with a config listing the category (see CategoryMetaMethod). If the category
+     * class has a static categoryMethods property, only the listed methods are registered, so its helper
+     * methods do not become instance methods of their first parameter type.
+     *
+     * @param categoryClasses
+     */
+    private void registerCategories(List categoryClasses) {
+        MetaClassRegistry registry = GroovySystem.metaClassRegistry
+        Set selfTypes = new LinkedHashSet()
+
+        synchronized(registeredCategories) {
+            categoryClasses.each { Class category ->
+                List names = category.metaClass.hasProperty(category, "categoryMethods") ? category.categoryMethods : null
+                boolean registered = registeredCategories.contains(category)
+
+                category.methods.findAll { Method m ->
+                    m.declaringClass == category && Modifier.isStatic(m.modifiers) && m.parameterTypes.length &&
+                        (names == null || names.contains(m.name))
+                }.each { Method m ->
+                    Class selfType = m.parameterTypes[0]
+
+                    if(selfType.primitive) {
+                        log.warn "Category method $m is not registered, primitive self type is not supported"
+                        return
+                    }
+
+                    selfTypes << selfType
+
+                    if(registered) {
+                        return
+                    }
+
+                    MetaClass mc = registry.getMetaClass(selfType)
+
+                    if(!(mc instanceof ExpandoMetaClass)) {
+                        mc = new ExpandoMetaClass(selfType, true, true)
+                        mc.initialize()
+                        registry.setMetaClass(selfType, mc)
+                    }
+
+                    mc.registerInstanceMethod(new CategoryMetaMethod(category, CachedMethod.find(m)))
+                }
+
+                if(!registered) {
+                    log.info "Methods of category $category are registered in the metaClasses"
+                    registeredCategories << category
+                }
+            }
+        }
+
+        inheritCategoryMethods(registry, selfTypes)
+    }
+
+
+    /**
+     * The ExpandoMetaClasses of the delegate classes of the profile inherit the category methods of their
+     * supertypes even if ExpandoMetaClass inheritance is not enabled globally. The Script and Closure
+     * classes get their ExpandoMetaClasses after the registration, and the other classes are not touched.
+     *
+     * @param registry
+     * @param selfTypes the types of the first parameters of the category methods
+     */
+    private void inheritCategoryMethods(MetaClassRegistry registry, Set selfTypes) {
+        delegates.each { DelegateDescriptor descriptor ->
+            Class clazz  = descriptor.clazz
+            MetaClass mc = registry.getMetaClass(clazz)
+
+            if(!(mc instanceof ExpandoMetaClass)) {
+                return
+            }
+
+            Set superExpandos = selfTypes.findAll { !it.is(clazz) && it.isAssignableFrom(clazz) }.collect {
+                registry.getMetaClass(it)
+            } as Set
+
+            if(superExpandos) {
+                mc.refreshInheritedMethods(superExpandos)
+            }
+        }
+    }
+
+
+    /**
+     * Loads the classes listed by the delegate index resources of the classpath. The order of the
+     * resources is kept, and the class names are sorted within each resource. Classes which cannot be
+     * loaded (e.g. a stale index of a class which was renamed) or are not annotated by @DslDelegate
+     * anymore are skipped.
+     *
+     * @return the List of delegate classes
+     */
+    public static List<Class> loadDelegateIndex() {
+        ClassLoader loader = Thread.currentThread().contextClassLoader ?: EngineProfile.classLoader
+        Set<String> classNames = new LinkedHashSet<String>()
+
+        loader.getResources(DELEGATE_INDEX).each { URL url ->
+            log.debug "Loading delegate index: $url"
+            url.withReader("UTF-8") { it.eachLine { line -> if(line.trim()) classNames << line.trim() } }
+        }
+
+        List<Class> classes = []
+
+        classNames.each { String className ->
+            try {
+                Class clazz = Class.forName(className, true, loader)
+
+                if(clazz.isAnnotationPresent(DslDelegate)) {
+                    classes << clazz
+                }
+                else {
+                    log.warn "Class of the delegate index is not annotated by @DslDelegate, it is skipped: $className"
+                }
+            }
+            catch (ClassNotFoundException e) {
+                log.warn "Class of the delegate index is not found, it is skipped: $className"
+            }
+        }
+        return classes
+    }
+
+
+    /**
+     *
+     * @param config the object retrieved from configuration object
+     * @return the delegate class
+     */
+    public static Class getDelegateClazz(config) {
+        if( config instanceof Class ) {
+            return config
+        }
+        else if(config instanceof Map) {
+            return config.clazz
+        }
+        else {
+            throw new RuntimeException("Type of $config must be Class or Map")
+        }
+    }
+
+
+    /**
+     * Convention: Get the dslKey from class or configuration entry. If none exists
+     * use the lower-case name of the class removing the Delegate from the end if needed,
+     * and also inject the dslKey property
+     *
+     * @param config the object retrieved from configuration object
+     * @return the dslKey string
+     */
+    public static String getDelegateDslKey(config) {
+        Class clazz = getDelegateClazz(config)
+
+        if(clazz.metaClass.hasProperty(clazz, "dslKey") && clazz.dslKey) {
+            return clazz.dslKey
+        }
+        else {
+            String key
+
+            if(config instanceof Map) {
+                key = config.dslKey
+            }
+            else if(clazz.simpleName.endsWith("Delegate")) {
+                key = clazz.simpleName.substring(0,clazz.simpleName.indexOf("Delegate")).toLowerCase()
+            }
+            else {
+                key = clazz.simpleName.toLowerCase()
+            }
+
+            //TODO: investigate why injecting dslKey crashes loads of tests
+            //clazz.metaClass.getDslKey = {-> return key }
+            return key
+        }
+    }
+
+
+    /**
+     * Converts user-friendly alias declaration to a format usable by DSLEngine
+     *
+     * @param aliasMap the map to be updated
+     * @param dslKey
+     * @param aliasDefinition
+     */
+    private static void convertAliasDefinition(Map aliasMap, String dslKey, Map aliasDefinition) {
+        aliasDefinition.each { k, list ->
+            if(k=="main") {
+                aliasMap[dslKey] = list
+            }
+            else {
+                list.each { alias ->
+                    aliasMap[dslKey+"-"+alias] = k
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Finds the real method of the alias in the alias table of the delegate class
+     *
+     * @param clazz the delegate class
+     * @param alias the alias name of the method
+     * @param args the arguments of the call
+     * @return the MetaMethod or null if the alias could not be resolved by the table
+     */
+    public MetaMethod getAliasMethod(Class clazz, String alias, Object[] args) {
+        return delegatesByClass[clazz]?.getAliasMethod(alias, args)
+    }
+
+
+    /**
+     *
+     * @return the list of default delegate classes, or empty list
+     */
+    private List getDefaultDelegates() {
+        def defaultDelegate = config.dsl.defaultDelegate
+
+        if(!defaultDelegate) {
+            return []
+        }
+        else if(defaultDelegate instanceof Class) {
+            return [defaultDelegate]
+        }
+        else if(defaultDelegate instanceof Map) {
+            return defaultDelegate.values() as List
+        }
+        else {
+            throw new RuntimeException("Type of config.dsl.defaultDelegate must be Class or Map")
+        }
+    }
+
+
+    /**
+     * Finds the dslKey of the default delegate for the script
+     *
+     * @param scriptName the name of the script file, its extension is used if the default delegates are in a Map
+     * @return the dslKey or null if there is no default delegate
+     */
+    public String getDefaultDslKey(String scriptName) {
+        def defaultDelegate = config.dsl.defaultDelegate
+
+        if(!defaultDelegate) {
+            return null
+        }
+
+        Class clazz = null
+
+        if( defaultDelegate instanceof Class ) {
+            clazz = defaultDelegate
+        }
+        else if(defaultDelegate instanceof Map) {
+            clazz = defaultDelegate[FilenameUtils.getExtension(scriptName)]
+        }
+        else {
+            throw new RuntimeException("Type of config.dsl.defaultDelegate must be Class or Map")
+        }
+
+        assert clazz, "Could not identify class for default delegate"
+
+        return getDelegate(clazz)?.dslKey ?: getDelegateDslKey( clazz )
+    }
+
+
+    /**
+     *
+     * @param clazz the delegate class
+     * @return the DelegateDescriptor, or null if the class is not a delegate
+     */
+    public DelegateDescriptor getDelegate(Class clazz) {
+        return delegatesByClass[clazz]
+    }
+
+
+    /**
+     *
+     * @param keyword the dslKey or main alias
+     * @return the DelegateDescriptor, or null if the name is not a keyword of the DSL
+     */
+    public DelegateDescriptor getKeywordDelegate(String keyword) {
+        return keywordDelegates[keyword]
+    }
+
+
+    /**
+     *
+     * @param clazz the Script or Closure class
+     * @return the keywords recorded by DSLKeywordCollector, or null if they are not known for the class
+     */
+    public List<String> getScriptKeywords(Class clazz) {
+        return DSLKeywordCollector.getKeywords(clazz)
+    }
+
+
+    /**
+     *
+     * @return true if the DSL calls of the scripts are wired during compilation
+     */
+    public boolean isCompileTimeWiring() {
+        return config.dsl.compileTimeWiring as boolean
+    }
+
+
+    /**
+     * Returns the ExecutionMetrics shared by the engines of the profile. It is created with its exporters
+     * defined by the dsl.metrics entry of the config the first time it is used:
+     * <pre>
+     * dsl.metrics.jmx      = true                    //or the ObjectName of the MBean
+     * dsl.metrics.jsonFile = 'build/metrics.jsonl'
+     * dsl.metrics.interval = 60                      //seconds, default is 60
+     * </pre>
+     *
+     * @return the ExecutionMetrics, or null if the config has no dsl.metrics entry
+     */
+    public synchronized ExecutionMetrics getMetrics() {
+        def metricsConfig = config.dsl.metrics
+
+        if(!metrics && metricsConfig) {
+            metrics = new ExecutionMetrics()
+
+            if(metricsConfig.jmx) {
+                exporters << new JmxMetricsExporter(metrics, metricsConfig.jmx instanceof String ? metricsConfig.jmx : null)
+            }
+
+            if(metricsConfig.jsonFile) {
+                exporters << new JsonLinesMetricsExporter(metrics, new File(metricsConfig.jsonFile), (metricsConfig.interval ?: 60) as long)
+            }
+
+            exporters*.start()
+        }
+        return metrics
+    }
+
+
+    /**
+     * Stops the exporters of the ExecutionMetrics, e.g. the thread of JsonLinesMetricsExporter
+     */
+    public synchronized void stopMetrics() {
+        exporters*.stop()
+        exporters.clear()
+    }
+
+
+    /**
+     * Returns the ExpandoMetaClass of the Script or Closure class, the factory is only called 
+     * the first time the class is used with this profile
+     *
+     * @param clazz the Script or Closure class
+     * @param factory closure creating and initialising the ExpandoMetaClass
+     * @return the ExpandoMetaClass
+     */
+    public ExpandoMetaClass getMetaClass(Class clazz, Closure factory) {
+        synchronized(metaClasses) {
+            ExpandoMetaClass emc = metaClasses[clazz]?.get()
+
+            if(!emc) {
+                log.debug "Building ExpandoMetaClass for $clazz"
+                emc = factory()
+                metaClasses[clazz] = new WeakReference(emc)
+            }
+            return emc
+        }
+    }
+
+
+    /**
+     * Scoped inheritance: copies the methods and properties added to the ExpandoMetaClasses of the
+     * superclasses and interfaces into the ExpandoMetaClass of the class. It is only done for the classes
+     * managed by the engine, and the methods are taken at the time of the call.
+     *
+     * @param emc the ExpandoMetaClass of the class
+     */
+    public void inheritMetaClass(ExpandoMetaClass emc) {
+        MetaClassRegistry registry = GroovySystem.metaClassRegistry
+        Set superExpandos = new LinkedHashSet()
+
+        for(Class c = emc.theClass; c; c = c.superclass) {
+            ([c.superclass] + (c.interfaces as List)).each {
+                MetaClass mc = it ? registry.getMetaClass(it) : null
+
+                if(mc instanceof ExpandoMetaClass) {
+                    superExpandos << mc
+                }
+            }
+        }
+
+        if(superExpandos) {
+            log.debug "${emc.theClass} inherits the ExpandoMetaClass of ${superExpandos*.theClass}"
+            emc.refreshInheritedMethods(superExpandos)
+        }
+    }
+
+
+    /**
+     * Returns the zero-argument method used to resolve the missing property of the delegate. The resolver
+     * is only called the first time the name is used with the metaClass (or its current version), and
+     * a null result is also cached so missing properties fail fast.
+     *
+     * @param delegate the delegate instance
+     * @param name the name of the missing property
+     * @param resolver closure returning the MetaMethod or null
+     * @return the MetaMethod or null if the property cannot be resolved
+     */
+    public MetaMethod getPropertyMethod(Object delegate, String name, Closure resolver) {
+        MetaClass mc = delegate.metaClass
+
+        //the metaClass property returns a HandleMetaClass, which has no version
+        if(mc instanceof DelegatingMetaClass) {
+            mc = ((DelegatingMetaClass)mc).adaptee
+        }
+
+        int version = (mc instanceof MetaClassImpl) ? ((MetaClassImpl)mc).version : 0
+
+        Map methods = null
+
+        synchronized(propertyMethods) {
+            def entry = propertyMethods[mc]?.get()
+
+            if(!entry || entry.version != version) {
+                entry = [version: version, methods: Collections.synchronizedMap([:])]
+                propertyMethods[mc] = new SoftReference(entry)
+            }
+            methods = entry.methods
+        }
+
+        def method = methods[name]
+
+        if(method == null) {
+            method = resolver() ?: UNRESOLVED
+            methods[name] = method
+        }
+
+        return method.is(UNRESOLVED) ? null : (MetaMethod)method
+    }
+
+
+    /**
+     *
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the CompilerConfiguration used to compile scripts, it shall not be modified
+     */
+    public CompilerConfiguration getCompilerConfiguration(String dslKey) {
+        return compilerConfigurations[dslKey ?: ""] ?: createCompilerConfiguration(dslKey)
+    }
+
+
+    /**
+     *
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the hash of every input used to create the CompilerConfiguration
+     */
+    public String getConfigurationFingerprint(String dslKey) {
+        return fingerprints[dslKey ?: ""] ?: createFingerprint(dslKey)
+    }
+
+
+    /**
+     *
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the fingerprint string
+     */
+    private String createFingerprint(String dslKey) {
+        def inputs = [dslKey ?: ""]
+
+        if(config.dsl.imports) {
+            inputs << config.dsl.imports.toString()
+        }
+
+        inputs << "keywords:" + keywordDelegates.keySet().sort().join(",")
+
+        if(compileTimeWiring) {
+            inputs << "wiring:" + delegates.collect { it.clazz.name + it.methods }.join(",")
+        }
+
+        inputs << "delegates:" + delegatesHash
+
+        return BytecodeCache.hash(inputs.join("|").getBytes("UTF-8"))
+    }
+
+
+    /**
+     * Classes which have no class file (e.g. parsed by a GroovyClassLoader) are only identified by their name
+     *
+     * @return the hash of the names and the bytecode of the delegate classes
+     */
+    private String hashDelegateClasses() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+
+        delegates.each { DelegateDescriptor descriptor ->
+            Class clazz = descriptor.clazz
+            bytes << clazz.name.getBytes("UTF-8")
+
+            InputStream classFile = clazz.getResourceAsStream("/" + clazz.name.replace('.', '/') + ".class")
+
+            if(classFile) {
+                classFile.withStream { bytes << it }
+            }
+        }
+        return BytecodeCache.hash(bytes.toByteArray())
+    }
+
+
+    /**
+     * Creates the effective CompilerConfiguration used to compile scripts
+     *
+     * @param dslKey the dslKey of the default delegate, can be null
+     * @return the CompilerConfiguration
+     */
+    private CompilerConfiguration createCompilerConfiguration(String dslKey) {
+        def compConfig = new CompilerConfiguration()
+
+        if(config.dsl.imports) {
+            compConfig = createImportConfigration()
+        }
+
+        if(dslKey) {
+            compConfig.addCompilationCustomizers(new DefaultDelegateCustomizer(dslKey))
+        }
+
+        //shall precede the wiring, which replaces the keyword calls
+        compConfig.addCompilationCustomizers(new DSLKeywordCollector(keywordDelegates.keySet()))
+
+        if(compileTimeWiring) {
+            def keywords = [:]
+            delegates.each { delegate ->
+                delegate.methods.each { keywords[it] = delegate.clazz }
+            }
+            compConfig.addCompilationCustomizers(new DSLWiringTransformation(keywords))
+        }
+
+        return compConfig
+    }
+
+
+    /**
+     *
+     * @return CompilerConfiguration containing the ImportCustomizer built from the dsl.imports entry
+     */
+    public CompilerConfiguration createImportConfigration() {
+        def configuration = new CompilerConfiguration()
+        def customizer = new ImportCustomizer()
+
+        if(config.dsl.imports.imports) {
+            customizer.addImports(config.dsl.imports.imports as String[])
+        }
+        if(config.dsl.imports.starImports) {
+            customizer.addStarImports(config.dsl.imports.starImports as String[])
+        }
+        if(config.dsl.imports.staticStars) {
+            customizer.addStaticStars(config.dsl.imports.staticStars as String[])
+        }
+        if(config.dsl.imports.aliasedImports) {
+            config.dsl.imports.aliasedImports.each {
+                customizer.addImport(it.key, it.value)
+            }
+        }
+        if(config.dsl.imports.staticImports) {
+            config.dsl.imports.staticImports.each {
+                customizer.addStaticImport(it[0], it[1])
+            }
+        }
+        if(config.dsl.imports.aliasedStaticImports) {
+            config.dsl.imports.aliasedStaticImports.each {
+                customizer.addStaticImport(it.key, it.value[0],it.value[1])
+            }
+        }
+
+        configuration.addCompilationCustomizers(customizer)
+
+        return configuration
+    }
+}
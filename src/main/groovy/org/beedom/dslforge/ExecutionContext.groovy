@@ -0,0 +1,79 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * State of one execution of a script or closure: the Binding, the reporter, the aliases injected
+ * for the time of a delegate call and the shared delegate instances. DSLEngine makes it the current
+ * execution of the thread, so many scripts can run in parallel on the same DSLEngine without
+ * overwriting each other's state.
+ *
+ * @author zs.myth
+ */
+final class ExecutionContext {
+
+    final DSLEngine engine
+    final Binding binding
+    final ReportRenderer reporter
+
+    /**
+     * The alias used to call the delegate class, used by the dslAlias property
+     */
+    final Map injectedAliases
+
+    /**
+     * Instances of the delegate classes with sharedInstance property
+     */
+    final Map sharedDelegates
+
+    /**
+     * Names of the scripts being included, used to detect circular includes
+     */
+    final List includeStack = []
+
+
+    /**
+     * Creates an execution with its own alias and shared delegate state
+     *
+     * @param dsle the DSLEngine running the script
+     * @param context the Binding of the script
+     * @param renderer the reporter, can be null
+     */
+    public ExecutionContext(DSLEngine dsle, Binding context, ReportRenderer renderer) {
+        this(dsle, context, renderer, [:], [:])
+    }
+
+
+    /**
+     *
+     * @param dsle the DSLEngine running the script
+     * @param context the Binding of the script
+     * @param renderer the reporter, can be null
+     * @param aliases Map of injected aliases
+     * @param delegates Map of shared delegate instances
+     */
+    public ExecutionContext(DSLEngine dsle, Binding context, ReportRenderer renderer, Map aliases, Map delegates) {
+        assert dsle, "DSLEngine must be specified"
+        assert context != null, "Binding must be specified"
+
+        engine          = dsle
+        binding         = context
+        reporter        = renderer
+        injectedAliases = aliases
+        sharedDelegates = delegates
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * Receives the timing of the probes of the execution. DSLEngine only measures the time if the
+ * listener is not the NoopExecutionListener, so the default costs one reference comparison per probe.
+ * The methods are called by all threads running scripts on the engine, so they shall be thread safe.
+ *
+ * @author zs.myth
+ */
+interface ExecutionListener {
+
+    /**
+     *
+     * @param probe the kind of the probe
+     * @param name the name of the keyword, method or script
+     */
+    public void enter(ExecutionProbe probe, String name);
+
+
+    /**
+     *
+     * @param probe the kind of the probe
+     * @param name the name of the keyword, method or script
+     * @param nanos the elapsed time in nanoseconds
+     * @param error the exception thrown, or null
+     */
+    public void exit(ExecutionProbe probe, String name, long nanos, Throwable error);
+}
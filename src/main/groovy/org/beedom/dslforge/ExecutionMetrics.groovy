@@ -0,0 +1,128 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * ExecutionListener aggregating the call count, the number of errors, the cumulative and the
+ * maximum time of each probe. The statistics are lock free, so they can be updated by many threads.
+ *
+ * @author zs.myth
+ */
+class ExecutionMetrics implements ExecutionListener {
+
+    /**
+     * Statistics of one probe
+     */
+    static class Stat {
+        final AtomicLong count      = new AtomicLong()
+        final AtomicLong errors     = new AtomicLong()
+        final AtomicLong totalNanos = new AtomicLong()
+        final AtomicLong maxNanos   = new AtomicLong()
+
+
+        /**
+         *
+         * @param nanos the elapsed time in nanoseconds
+         * @param failed
+         */
+        void record(long nanos, boolean failed) {
+            count.incrementAndGet()
+            totalNanos.addAndGet(nanos)
+
+            if(failed) {
+                errors.incrementAndGet()
+            }
+
+            long max = maxNanos.get()
+
+            while(nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get()
+            }
+        }
+
+
+        /**
+         *
+         * @return Map of count, errors, totalNanos and maxNanos
+         */
+        Map toMap() {
+            return [count: count.get(), errors: errors.get(), totalNanos: totalNanos.get(), maxNanos: maxNanos.get()]
+        }
+    }
+
+    private final Map<ExecutionProbe, ConcurrentMap<String, Stat>> stats = new EnumMap(ExecutionProbe)
+
+
+    public ExecutionMetrics() {
+        ExecutionProbe.values().each { stats[it] = new ConcurrentHashMap<String, Stat>() }
+    }
+
+
+    public void enter(ExecutionProbe probe, String name) {
+    }
+
+
+    public void exit(ExecutionProbe probe, String name, long nanos, Throwable error) {
+        getStat(probe, name).record(nanos, error != null)
+    }
+
+
+    /**
+     *
+     * @param probe
+     * @param name
+     * @return the statistics of the probe, created on the first call
+     */
+    public Stat getStat(ExecutionProbe probe, String name) {
+        ConcurrentMap<String, Stat> probeStats = stats[probe]
+        Stat stat = probeStats.get(name)
+
+        if(stat == null) {
+            Stat created = new Stat()
+            stat = probeStats.putIfAbsent(name, created) ?: created
+        }
+        return stat
+    }
+
+
+    /**
+     * Returns the copy of the statistics, the values of one probe are read one by one,
+     * so they can be slightly inconsistent while the scripts are running
+     *
+     * @return Map of probe to Map of name to the Map of the values (see Stat.toMap())
+     */
+    public Map<ExecutionProbe, Map<String, Map>> snapshot() {
+        Map result = new EnumMap(ExecutionProbe)
+
+        stats.each { probe, probeStats ->
+            result[probe] = new TreeMap(probeStats.collectEntries { name, stat -> [name, stat.toMap()] })
+        }
+        return result
+    }
+
+
+    /**
+     * Removes all statistics
+     */
+    public void reset() {
+        stats.values().each { it.clear() }
+    }
+}
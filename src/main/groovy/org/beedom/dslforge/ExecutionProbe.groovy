@@ -0,0 +1,50 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * The points of the execution reported to the ExecutionListener
+ *
+ * @author zs.myth
+ */
+enum ExecutionProbe {
+
+    /**
+     * A delegate block, from the call of the DSL keyword until its closure has finished. The name is the keyword.
+     */
+    DELEGATE,
+
+    /**
+     * A method of a delegate class called by its alias. The name is the simple name of the class and the alias.
+     */
+    ALIAS,
+
+    /**
+     * A script run by the evaluate methods (dsl.evaluate). The name is the script name.
+     */
+    INCLUDE,
+
+    /**
+     * Loading the class of a script, which includes its compilation if it is new or modified. The name is the script name.
+     */
+    COMPILE,
+
+    /**
+     * A method of the ReportRenderer. The name is the method name.
+     */
+    REPORT
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import org.codehaus.groovy.ast.CodeVisitorSupport
+import org.codehaus.groovy.ast.expr.ArgumentListExpression
+import org.codehaus.groovy.ast.expr.ConstantExpression
+import org.codehaus.groovy.ast.expr.MethodCallExpression
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.Phases
+
+
+/**
+ * Compiled classes of the scripts included by the evaluate methods (dsl.evaluate), cached by the path
+ * and the modification time of the file. The names of the files included by constant arguments are
+ * also collected from the source, so circular includes are detected before the included script is run.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class IncludeCache {
+
+    private final String scriptsHome
+    private final List evaluateMethods
+
+    /**
+     * Canonical path to Map of modified, clazz and includes entries
+     */
+    private final Map units = [:]
+
+    /**
+     * Number of times the loader was called to compile an included script
+     */
+    private int compileCount = 0
+
+
+    /**
+     *
+     * @param home the directory of the scripts
+     * @param methods the names of the evaluate methods
+     */
+    public IncludeCache(String home, List methods) {
+        scriptsHome     = home
+        evaluateMethods = methods
+    }
+
+
+    /**
+     * Returns the class of the included script, the loader is only called if the file is new or modified
+     *
+     * @param scriptName the name of the included script
+     * @param loader closure returning the compiled class
+     * @return the class of the script
+     */
+    public synchronized Class getUnitClass(String scriptName, Closure loader) {
+        Map unit = getUnit(scriptName)
+
+        if(!unit.clazz) {
+            log.debug "Compiling included script: $scriptName"
+            unit.clazz = loader()
+            compileCount++
+        }
+        return unit.clazz
+    }
+
+
+    /**
+     *
+     * @return the number of times an included script was compiled (or loaded) by the loader
+     */
+    public synchronized int getCompileCount() {
+        return compileCount
+    }
+
+
+    /**
+     * Checks the includes of the script recursively, following the constant arguments of the evaluate methods
+     *
+     * @param scriptName the name of the included script
+     * @throws RuntimeException if the script includes itself directly or indirectly
+     */
+    public synchronized void checkCycles(String scriptName) {
+        checkCycles(scriptName, [])
+    }
+
+
+    /**
+     *
+     * @param scriptName
+     * @param path the chain of includes leading to the script
+     */
+    private void checkCycles(String scriptName, List path) {
+        if(path.contains(scriptName)) {
+            throw new RuntimeException("Circular include: ${(path + scriptName).join(' -> ')}")
+        }
+
+        if(!new File(scriptsHome, scriptName).exists()) {
+            //it is reported when the script is included
+            return
+        }
+
+        Map unit = getUnit(scriptName)
+
+        if(unit.checked) {
+            return
+        }
+
+        unit.includes.each { checkCycles(it, path + scriptName) }
+
+        if(!path) {
+            unit.checked = true
+        }
+    }
+
+
+    /**
+     * Returns the cache entry of the script. The entry is reset if the file was modified.
+     *
+     * @param scriptName
+     * @return the Map with modified, clazz, includes and checked entries
+     */
+    private Map getUnit(String scriptName) {
+        File file   = new File(scriptsHome, scriptName)
+        String path = file.canonicalPath
+
+        Map unit = units[path]
+
+        if(!unit || unit.modified != file.lastModified()) {
+            unit = [modified: file.lastModified(), clazz: null, includes: findIncludes(file), checked: false]
+            units[path] = unit
+
+            //the result of the cycle check depends on the included files
+            units.values().each { it.checked = false }
+        }
+
+        return unit
+    }
+
+
+    /**
+     * Parses the script and collects the constant String arguments of the evaluate methods
+     *
+     * @param file the script file
+     * @return the list of included script names
+     */
+    private List findIncludes(File file) {
+        def includes = []
+
+        CompilationUnit cu = new CompilationUnit()
+        cu.addSource(file)
+        cu.compile(Phases.CONVERSION)
+
+        def visitor = new CodeVisitorSupport() {
+            public void visitMethodCallExpression(MethodCallExpression call) {
+                if(call.implicitThis && evaluateMethods.contains(call.methodAsString) && call.arguments instanceof ArgumentListExpression) {
+                    def args = call.arguments.expressions
+
+                    if(args.size() == 1 && args[0] instanceof ConstantExpression && args[0].value instanceof String) {
+                        includes << args[0].value
+                    }
+                }
+                super.visitMethodCallExpression(call)
+            }
+        }
+
+        cu.AST.modules.each { module ->
+            module.statementBlock.visit(visitor)
+            module.classes.each { clazz -> clazz.methods.each { it.code?.visit(visitor) } }
+        }
+
+        return includes.unique()
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.util.logging.Slf4j
+
+import java.lang.management.ManagementFactory
+
+import javax.management.Attribute
+import javax.management.AttributeList
+import javax.management.AttributeNotFoundException
+import javax.management.DynamicMBean
+import javax.management.MBeanAttributeInfo
+import javax.management.MBeanInfo
+import javax.management.MBeanOperationInfo
+import javax.management.MBeanServer
+import javax.management.ObjectName
+
+
+/**
+ * Exports ExecutionMetrics to the platform MBeanServer. Each value of each probe is a read-only
+ * attribute named <code>PROBE.name.value</code>, e.g. <code>DELEGATE.feature.maxNanos</code>, and the
+ * reset operation clears the statistics.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class JmxMetricsExporter implements DynamicMBean {
+
+    public static final String DEFAULT_NAME = "org.beedom.dslforge:type=ExecutionMetrics"
+
+    final ExecutionMetrics metrics
+    final ObjectName objectName
+
+
+    /**
+     *
+     * @param m the metrics to be exported
+     * @param name the ObjectName of the MBean, DEFAULT_NAME is used if it is null
+     */
+    public JmxMetricsExporter(ExecutionMetrics m, String name) {
+        assert m, "ExecutionMetrics must be specified"
+
+        metrics    = m
+        objectName = new ObjectName(name ?: DEFAULT_NAME)
+    }
+
+
+    /**
+     * Registers the MBean, the previous registration with the same name is replaced
+     */
+    public void start() {
+        MBeanServer server = ManagementFactory.platformMBeanServer
+
+        if(server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName)
+        }
+        server.registerMBean(this, objectName)
+
+        log.info "ExecutionMetrics is registered as $objectName"
+    }
+
+
+    /**
+     *
+     */
+    public void stop() {
+        MBeanServer server = ManagementFactory.platformMBeanServer
+
+        if(server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName)
+        }
+    }
+
+
+    /**
+     *
+     * @return Map of attribute name and value
+     */
+    private Map<String, Long> getValues() {
+        Map values = new TreeMap()
+
+        metrics.snapshot().each { probe, probeStats ->
+            probeStats.each { name, stat ->
+                stat.each { key, value -> values["${probe}.${name}.${key}".toString()] = value }
+            }
+        }
+        return values
+    }
+
+
+    public Object getAttribute(String attribute) {
+        Map values = getValues()
+
+        if(!values.containsKey(attribute)) {
+            throw new AttributeNotFoundException(attribute)
+        }
+        return values[attribute]
+    }
+
+
+    public AttributeList getAttributes(String[] attributes) {
+        Map values = getValues()
+        AttributeList list = new AttributeList()
+
+        attributes.findAll { values.containsKey(it) }.each { list.add(new Attribute(it, values[it])) }
+
+        return list
+    }
+
+
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("ExecutionMetrics attributes are read-only")
+    }
+
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList()
+    }
+
+
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        if(actionName == "reset") {
+            metrics.reset()
+            return null
+        }
+        throw new UnsupportedOperationException("Unknown operation: $actionName")
+    }
+
+
+    public MBeanInfo getMBeanInfo() {
+        MBeanAttributeInfo[] attributes = getValues().keySet().collect { String name ->
+            new MBeanAttributeInfo(name, Long.name, name, true, false, false)
+        } as MBeanAttributeInfo[]
+
+        MBeanOperationInfo[] operations = [
+            new MBeanOperationInfo("reset", "Removes all statistics", null, "void", MBeanOperationInfo.ACTION)
+        ] as MBeanOperationInfo[]
+
+        return new MBeanInfo(getClass().name, "Execution metrics of DSLEngine", attributes, null, operations, null)
+    }
+}
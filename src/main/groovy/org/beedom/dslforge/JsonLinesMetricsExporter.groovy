@@ -0,0 +1,117 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+import groovy.json.JsonOutput
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+
+/**
+ * Appends the snapshot of ExecutionMetrics to a file periodically. Each line is a JSON object of one probe:
+ * <pre>
+ * {"time":1349087120000,"probe":"DELEGATE","name":"feature","count":12,"errors":0,"totalNanos":5230000,"maxNanos":910000}
+ * </pre>
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class JsonLinesMetricsExporter {
+
+    final ExecutionMetrics metrics
+    final File file
+    final long intervalSeconds
+
+    private ScheduledExecutorService scheduler = null
+
+
+    /**
+     *
+     * @param m the metrics to be exported
+     * @param f the file the lines are appended to
+     * @param interval the period of the export in seconds
+     */
+    public JsonLinesMetricsExporter(ExecutionMetrics m, File f, long interval) {
+        assert m, "ExecutionMetrics must be specified"
+        assert f, "File must be specified"
+        assert interval > 0, "Interval must be positive"
+
+        metrics         = m
+        file            = f
+        intervalSeconds = interval
+    }
+
+
+    /**
+     * Starts the daemon thread exporting the metrics
+     */
+    public synchronized void start() {
+        if(scheduler) {
+            return
+        }
+
+        file.absoluteFile.parentFile?.mkdirs()
+
+        scheduler = Executors.newSingleThreadScheduledExecutor({ Runnable r ->
+            Thread t = new Thread(r, "dslforge-metrics")
+            t.daemon = true
+            return t
+        } as ThreadFactory)
+
+        scheduler.scheduleAtFixedRate({ export() } as Runnable, intervalSeconds, intervalSeconds, TimeUnit.SECONDS)
+
+        log.info "ExecutionMetrics is exported to $file in every $intervalSeconds seconds"
+    }
+
+
+    /**
+     * Stops the thread and writes the last snapshot
+     */
+    public synchronized void stop() {
+        if(scheduler) {
+            scheduler.shutdown()
+            scheduler = null
+            export()
+        }
+    }
+
+
+    /**
+     * Appends the current snapshot to the file
+     */
+    public synchronized void export() {
+        try {
+            long time = System.currentTimeMillis()
+
+            file.withWriterAppend("UTF-8") { Writer writer ->
+                metrics.snapshot().each { probe, probeStats ->
+                    probeStats.each { name, stat ->
+                        writer.write(JsonOutput.toJson([time: time, probe: probe.name(), name: name] + stat))
+                        writer.write("\n")
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            //the scheduled export shall not be stopped by an exception
+            log.error("Failed to export metrics to $file", e)
+        }
+    }
+}
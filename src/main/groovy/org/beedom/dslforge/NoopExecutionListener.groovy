@@ -0,0 +1,39 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * The default ExecutionListener of DSLEngine, it does nothing
+ *
+ * @author zs.myth
+ */
+final class NoopExecutionListener implements ExecutionListener {
+
+    public static final NoopExecutionListener INSTANCE = new NoopExecutionListener()
+
+
+    private NoopExecutionListener() {
+    }
+
+
+    public void enter(ExecutionProbe probe, String name) {
+    }
+
+
+    public void exit(ExecutionProbe probe, String name, long nanos, Throwable error) {
+    }
+}
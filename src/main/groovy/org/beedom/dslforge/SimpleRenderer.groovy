@@ -39,6 +39,29 @@ class SimpleRenderer implements ReportRenderer {
     }
 
 
+    /**
+     * Creates a renderer with the same settings writing into another writer, e.g. to render 
+     * the scripts of a batch separately
+     * 
+     * @param w the writer of the new renderer
+     * @return the new SimpleRenderer
+     */
+    public SimpleRenderer newRenderer(PrintWriter w) {
+        return new SimpleRenderer(type: type, writer: w, numbered: numbered)
+    }
+
+
+    /**
+     * Writes the text rendered by another renderer
+     * 
+     * @param text
+     */
+    public void append(String text) {
+        writer.print(text)
+        writer.flush()
+    }
+
+
     /**
      * 
      * @param level
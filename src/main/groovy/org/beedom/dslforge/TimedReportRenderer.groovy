@@ -0,0 +1,79 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge
+
+
+/**
+ * Decorates a ReportRenderer to report the time spent by its methods to the ExecutionListener
+ * with the REPORT probe
+ *
+ * @author zs.myth
+ */
+class TimedReportRenderer implements ReportRenderer {
+
+    final ReportRenderer renderer
+    final ExecutionListener listener
+
+
+    /**
+     *
+     * @param r the decorated renderer
+     * @param l the listener
+     */
+    public TimedReportRenderer(ReportRenderer r, ExecutionListener l) {
+        renderer = r
+        listener = l
+    }
+
+
+    public void openContext(String dslKey, String alias, String desc) {
+        timed("openContext") { renderer.openContext(dslKey, alias, desc) }
+    }
+
+
+    public void writeMethod(String dslKey, String method, String alias, String desc) {
+        timed("writeMethod") { renderer.writeMethod(dslKey, method, alias, desc) }
+    }
+
+
+    public void closeContext(String dslKey, String alias) {
+        timed("closeContext") { renderer.closeContext(dslKey, alias) }
+    }
+
+
+    /**
+     *
+     * @param name the name of the method
+     * @param cl the call of the decorated renderer
+     */
+    private void timed(String name, Closure cl) {
+        Throwable error = null
+
+        listener.enter(ExecutionProbe.REPORT, name)
+        long start = System.nanoTime()
+
+        try {
+            cl()
+        }
+        catch (Throwable e) {
+            error = e
+            throw e
+        }
+        finally {
+            listener.exit(ExecutionProbe.REPORT, name, System.nanoTime() - start, error)
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.ast.global
+
+import groovy.util.logging.Slf4j
+
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport
+import org.codehaus.groovy.ast.ClassHelper
+import org.codehaus.groovy.ast.ClassNode
+import org.codehaus.groovy.ast.expr.ArrayExpression
+import org.codehaus.groovy.ast.expr.ConstantExpression
+import org.codehaus.groovy.ast.expr.MethodCallExpression
+import org.codehaus.groovy.classgen.GeneratorContext
+import org.codehaus.groovy.control.CompilePhase
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.control.customizers.CompilationCustomizer
+
+
+/**
+ * Records the DSL keywords called by the script (including its closures) in the static field
+ * <code>$dslKeywords</code> of the script class, so DSLEngine only registers the delegates used
+ * by the script in its ExpandoMetaClass. The field is compiled into the class, so it is also
+ * available if the class is loaded from the bytecode cache.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+public class DSLKeywordCollector extends CompilationCustomizer {
+
+    public static final String KEYWORDS_FIELD = '$dslKeywords'
+
+    /**
+     * dslKeys and aliases of all delegates
+     */
+    final Set<String> keywords
+
+
+    /**
+     *
+     * @param names dslKeys and aliases of all delegates
+     */
+    public DSLKeywordCollector(Collection<String> names) {
+        super(CompilePhase.SEMANTIC_ANALYSIS)
+        keywords = new HashSet<String>(names).asImmutable()
+    }
+
+
+    /**
+     *
+     */
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+        if(!classNode.isScript() || classNode.getField(KEYWORDS_FIELD)) {
+            return
+        }
+
+        Set<String> used = new TreeSet<String>()
+
+        def collector = new ClassCodeVisitorSupport() {
+            protected SourceUnit getSourceUnit() { return source }
+
+            public void visitMethodCallExpression(MethodCallExpression call) {
+                if(call.implicitThis && keywords.contains(call.methodAsString)) {
+                    used.add(call.methodAsString)
+                }
+                super.visitMethodCallExpression(call)
+            }
+        }
+        collector.visitClass(classNode)
+
+        log.debug "DSL keywords of ${classNode.name}: $used"
+
+        classNode.addField(KEYWORDS_FIELD, Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL, ClassHelper.STRING_TYPE.makeArray(),
+            new ArrayExpression(ClassHelper.STRING_TYPE, used.collect { new ConstantExpression(it) }))
+    }
+
+
+    /**
+     *
+     * @param clazz the script class
+     * @return the keywords recorded in the class, or null if the class was not compiled with the collector
+     */
+    public static List<String> getKeywords(Class clazz) {
+        Field field = clazz.declaredFields.find { it.name == KEYWORDS_FIELD && Modifier.isStatic(it.modifiers) }
+
+        return field ? (field.get(null) as List<String>) : null
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.ast.global
+
+import groovy.util.logging.Slf4j
+
+import org.beedom.dslforge.DSLEngine
+import org.codehaus.groovy.ast.ASTNode
+import org.codehaus.groovy.ast.ClassCodeExpressionTransformer
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport
+import org.codehaus.groovy.ast.ClassHelper
+import org.codehaus.groovy.ast.ClassNode
+import org.codehaus.groovy.ast.MethodNode
+import org.codehaus.groovy.ast.expr.ArgumentListExpression
+import org.codehaus.groovy.ast.expr.ArrayExpression
+import org.codehaus.groovy.ast.expr.ClassExpression
+import org.codehaus.groovy.ast.expr.ClosureExpression
+import org.codehaus.groovy.ast.expr.ConstantExpression
+import org.codehaus.groovy.ast.expr.DeclarationExpression
+import org.codehaus.groovy.ast.expr.Expression
+import org.codehaus.groovy.ast.expr.MethodCallExpression
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression
+import org.codehaus.groovy.ast.expr.TupleExpression
+import org.codehaus.groovy.ast.expr.VariableExpression
+import org.codehaus.groovy.classgen.GeneratorContext
+import org.codehaus.groovy.control.CompilePhase
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.control.customizers.CompilationCustomizer
+import org.codehaus.groovy.transform.ASTTransformation
+import org.codehaus.groovy.transform.GroovyASTTransformation
+
+
+/**
+ * Rewrites the <code>dslKey(args) { ... }</code> calls of scripts into a static call of
+ * DSLEngine.invokeDelegate(), which instantiates the delegate class and runs the closure without
+ * going through the ExpandoMetaClass of the script. The keywords (dslKeys and main aliases) and
+ * their delegate classes are taken from the DSL config, so the transformation is added to the
+ * CompilerConfiguration as a customizer instead of being registered in META-INF/services.
+ * <p>
+ * Calls are left untouched if the name is a method or field of the script, a variable or parameter
+ * of the source, or the last argument is not a closure literal. They are resolved by the runtime path.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+@GroovyASTTransformation(phase = CompilePhase.SEMANTIC_ANALYSIS)
+public class DSLWiringTransformation extends CompilationCustomizer implements ASTTransformation {
+
+    /**
+     * Keyword (dslKey or main alias) to delegate class
+     */
+    final Map<String, Class> keywords
+
+
+    /**
+     *
+     * @param keywordMap dslKeys and main aliases mapped to the delegate class
+     */
+    public DSLWiringTransformation(Map<String, Class> keywordMap) {
+        super(CompilePhase.SEMANTIC_ANALYSIS)
+        keywords = keywordMap.asImmutable()
+    }
+
+
+    /**
+     *
+     */
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+        visit([classNode] as ASTNode[], source)
+    }
+
+
+    /**
+     *
+     * @param astNodes the class nodes to be transformed, or null to transform all classes of the source
+     * @param sourceUnit
+     */
+    public void visit(ASTNode[] astNodes, SourceUnit sourceUnit) {
+        List<ClassNode> classes = astNodes ? astNodes.findAll { it instanceof ClassNode } : sourceUnit.AST.classes
+
+        classes.each { ClassNode classNode ->
+            Set<String> shadowed = collectShadowedNames(sourceUnit, classNode)
+
+            if(keywords.keySet().every { shadowed.contains(it) }) {
+                return
+            }
+
+            def transformer = new WiringTransformer(sourceUnit: sourceUnit, keywords: keywords, shadowed: shadowed)
+            transformer.visitClass(classNode)
+
+            if(transformer.wired) {
+                log.debug "Wired ${transformer.wired} DSL call(s) in ${classNode.name}"
+            }
+        }
+    }
+
+
+    /**
+     * Names which cannot be wired, because the call could refer to something else than the delegate
+     *
+     * @param sourceUnit
+     * @param classNode
+     * @return the set of names
+     */
+    private Set<String> collectShadowedNames(SourceUnit sourceUnit, ClassNode classNode) {
+        Set<String> names = new HashSet<String>()
+
+        names.addAll(classNode.methods*.name)
+        names.addAll(classNode.fields*.name)
+
+        def collector = new ClassCodeVisitorSupport() {
+            protected SourceUnit getSourceUnit() { return sourceUnit }
+
+            protected void visitConstructorOrMethod(MethodNode node, boolean isConstructor) {
+                node.parameters.each { names.add(it.name) }
+                super.visitConstructorOrMethod(node, isConstructor)
+            }
+
+            public void visitDeclarationExpression(DeclarationExpression expression) {
+                if(expression.leftExpression instanceof VariableExpression) {
+                    names.add(expression.variableExpression.name)
+                }
+                else if(expression.leftExpression instanceof TupleExpression) {
+                    expression.tupleExpression.expressions.each { names.add(it.name) }
+                }
+                super.visitDeclarationExpression(expression)
+            }
+
+            public void visitClosureExpression(ClosureExpression expression) {
+                expression.parameters?.each { names.add(it.name) }
+                super.visitClosureExpression(expression)
+            }
+        }
+        collector.visitClass(classNode)
+
+        return names
+    }
+
+
+    /**
+     * Replaces the DSL calls, and descends into the closures as they contain the nested calls
+     */
+    private static class WiringTransformer extends ClassCodeExpressionTransformer {
+        SourceUnit sourceUnit
+        Map<String, Class> keywords
+        Set<String> shadowed
+
+        int closureDepth = 0
+        int wired = 0
+
+        protected SourceUnit getSourceUnit() {
+            return sourceUnit
+        }
+
+        public Expression transform(Expression exp) {
+            if(exp instanceof ClosureExpression) {
+                closureDepth++
+                exp.code.visit(this)
+                closureDepth--
+                return exp
+            }
+            else if(exp instanceof MethodCallExpression && isWireable(exp)) {
+                return wire(exp)
+            }
+            return exp?.transformExpression(this)
+        }
+
+        private boolean isWireable(MethodCallExpression call) {
+            if(!call.implicitThis || !(call.method instanceof ConstantExpression)) {
+                return false
+            }
+
+            String name = call.methodAsString
+
+            if(!keywords.containsKey(name) || shadowed.contains(name)) {
+                return false
+            }
+
+            List args = getArguments(call)
+            return args && args[-1] instanceof ClosureExpression
+        }
+
+        private List<Expression> getArguments(MethodCallExpression call) {
+            return (call.arguments instanceof TupleExpression) ? call.arguments.expressions : [call.arguments]
+        }
+
+        /**
+         * DSLEngine.invokeDelegate(this, delegateOfEnclosingClosure, DelegateClass, 'name', [args] as Object[])
+         */
+        private Expression wire(MethodCallExpression call) {
+            String name = call.methodAsString
+            List<Expression> args = getArguments(call).collect { transform(it) }
+
+            Expression closureDelegate = ConstantExpression.NULL
+
+            //inside closures the delegate of the enclosing closure has precedence (DELEGATE_FIRST)
+            if(closureDepth) {
+                closureDelegate = new MethodCallExpression(VariableExpression.THIS_EXPRESSION, "getDelegate", ArgumentListExpression.EMPTY_ARGUMENTS)
+                closureDelegate.implicitThis = true
+            }
+
+            StaticMethodCallExpression wiredCall = new StaticMethodCallExpression(
+                ClassHelper.make(DSLEngine),
+                "invokeDelegate",
+                new ArgumentListExpression(
+                    VariableExpression.THIS_EXPRESSION,
+                    closureDelegate,
+                    new ClassExpression(ClassHelper.make(keywords[name])),
+                    new ConstantExpression(name),
+                    new ArrayExpression(ClassHelper.OBJECT_TYPE, args)
+                )
+            )
+            wiredCall.setSourcePosition(call)
+            wired++
+
+            return wiredCall
+        }
+    }
+}
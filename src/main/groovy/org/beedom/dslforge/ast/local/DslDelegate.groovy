@@ -0,0 +1,30 @@
+package org.beedom.dslforge.ast.local
+
+import java.lang.annotation.ElementType
+import java.lang.annotation.Retention
+import java.lang.annotation.RetentionPolicy
+import java.lang.annotation.Target
+
+import org.codehaus.groovy.transform.GroovyASTTransformationClass
+
+
+/**
+ * Marks a delegate class to be listed in the META-INF/dslforge/delegates index written during compilation.
+ * The index is loaded by EngineProfile if the config contains the <code>dsl.delegateIndex = true</code> entry.
+ * The annotation is kept at runtime, so the classes which are not annotated anymore are skipped.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target([ElementType.TYPE])
+@GroovyASTTransformationClass(["org.beedom.dslforge.ast.local.DslDelegateTransformation"])
+public @interface DslDelegate {
+
+    /**
+     * The dslKey of the delegate, the static dslKey property is added to the class if it is given
+     */
+    String dslKey() default ""
+
+    /**
+     * The aliases of the dslKey, they are added as the main entry of the static aliases property
+     */
+    String[] aliases() default []
+}
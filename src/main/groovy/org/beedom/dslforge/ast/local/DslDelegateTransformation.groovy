@@ -0,0 +1,173 @@
+package org.beedom.dslforge.ast.local
+
+import groovy.util.logging.Slf4j
+
+import java.lang.reflect.Modifier
+
+import org.beedom.dslforge.EngineProfile
+import org.codehaus.groovy.ast.ASTNode
+import org.codehaus.groovy.ast.AnnotationNode
+import org.codehaus.groovy.ast.ClassHelper
+import org.codehaus.groovy.ast.ClassNode
+import org.codehaus.groovy.ast.FieldNode
+import org.codehaus.groovy.ast.expr.ConstantExpression
+import org.codehaus.groovy.ast.expr.Expression
+import org.codehaus.groovy.ast.expr.ListExpression
+import org.codehaus.groovy.ast.expr.MapEntryExpression
+import org.codehaus.groovy.ast.expr.MapExpression
+import org.codehaus.groovy.control.CompilePhase
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.control.messages.SyntaxErrorMessage
+import org.codehaus.groovy.syntax.SyntaxException
+import org.codehaus.groovy.transform.ASTTransformation
+import org.codehaus.groovy.transform.GroovyASTTransformation
+
+
+/**
+ * Adds the dslKey and aliases properties given by @DslDelegate to the class, and adds the class
+ * to the index of delegates in the target directory of the compilation
+ *
+ * @author zs.myth
+ */
+@Slf4j
+@GroovyASTTransformation(phase = CompilePhase.SEMANTIC_ANALYSIS)
+public class DslDelegateTransformation implements ASTTransformation {
+
+    /**
+     *
+     * @param astNodes
+     * @param sourceUnit
+     */
+    public void visit(ASTNode[] astNodes, SourceUnit sourceUnit) {
+        if (!astNodes || !(astNodes[0] instanceof AnnotationNode) || !(astNodes[1] instanceof ClassNode)) {
+            addError("Internal Error: wrong arguments", astNodes[0], sourceUnit)
+            return
+        }
+
+        AnnotationNode annotation = astNodes[0]
+        ClassNode classNode       = astNodes[1]
+
+        String dslKey = getMember(annotation, "dslKey")?.value
+        List aliases  = getAliases(annotation)
+
+        if(dslKey) {
+            if(classNode.getField("dslKey")) {
+                addError("dslKey is defined by both @DslDelegate and the static dslKey property", annotation, sourceUnit)
+                return
+            }
+            classNode.addField("dslKey", Modifier.PUBLIC | Modifier.STATIC, ClassHelper.OBJECT_TYPE, new ConstantExpression(dslKey))
+        }
+
+        if(aliases) {
+            addMainAliases(classNode, aliases, annotation, sourceUnit)
+        }
+
+        File targetDirectory = sourceUnit.configuration.targetDirectory
+
+        if(targetDirectory) {
+            writeIndex(new File(targetDirectory, EngineProfile.DELEGATE_INDEX), classNode.name)
+        }
+        else {
+            log.debug "No target directory, ${classNode.name} is not added to the delegate index"
+        }
+    }
+
+
+    /**
+     *
+     * @param annotation
+     * @param name
+     * @return the member of the annotation, or null
+     */
+    private Expression getMember(AnnotationNode annotation, String name) {
+        return annotation.getMember(name)
+    }
+
+
+    /**
+     *
+     * @param annotation
+     * @return the list of aliases, a single String is also accepted
+     */
+    private List getAliases(AnnotationNode annotation) {
+        Expression member = getMember(annotation, "aliases")
+
+        if(member instanceof ListExpression) {
+            return member.expressions*.value
+        }
+        else if(member instanceof ConstantExpression) {
+            return [member.value]
+        }
+        return []
+    }
+
+
+    /**
+     * Adds the aliases of the dslKey to the static aliases property as the main entry, the property is
+     * created if it does not exist
+     *
+     * @param classNode
+     * @param aliases
+     * @param annotation
+     * @param sourceUnit
+     */
+    private void addMainAliases(ClassNode classNode, List aliases, AnnotationNode annotation, SourceUnit sourceUnit) {
+        def main = new MapEntryExpression(
+            new ConstantExpression("main"), new ListExpression(aliases.collect { new ConstantExpression(it) }))
+
+        FieldNode field = classNode.getField("aliases")
+
+        if(!field) {
+            classNode.addField("aliases", Modifier.PUBLIC | Modifier.STATIC, ClassHelper.OBJECT_TYPE, new MapExpression([main]))
+        }
+        else if(field.initialValueExpression instanceof MapExpression &&
+                !field.initialValueExpression.mapEntryExpressions.find { it.keyExpression.text == "main" }) {
+            field.initialValueExpression.addMapEntryExpression(main)
+        }
+        else {
+            addError("aliases of the dslKey are defined by both @DslDelegate and the main entry of the static aliases property", annotation, sourceUnit)
+        }
+    }
+
+
+    /**
+     * Adds the class to the index. The classes of the existing index are kept, as a partial compilation
+     * only sees the annotated classes it compiles. Renamed, deleted or not annotated classes are
+     * skipped by EngineProfile.loadDelegateIndex() instead.
+     *
+     * @param index the index file
+     * @param className
+     */
+    private void writeIndex(File index, String className) {
+        synchronized(DslDelegateTransformation) {
+            Set<String> classNames = new TreeSet<String>()
+
+            if(index.exists()) {
+                classNames.addAll(index.readLines("UTF-8").collect { it.trim() }.findAll { it })
+            }
+
+            if(classNames.add(className)) {
+                index.parentFile.mkdirs()
+                index.withWriter("UTF-8") { Writer w -> classNames.each { w.write(it + "\n") } }
+
+                log.debug "$className is added to the delegate index $index"
+            }
+        }
+    }
+
+
+    /**
+     *
+     * @param msg
+     * @param node
+     * @param source
+     */
+    public void addError(String msg, ASTNode node, SourceUnit source) {
+        int line = node.lineNumber
+        int col = node.columnNumber
+
+        SyntaxException se = new SyntaxException(msg + '\n', line, col)
+        SyntaxErrorMessage sem = new SyntaxErrorMessage(se, source)
+        source.errorCollector.addErrorAndContinue(sem)
+    }
+}
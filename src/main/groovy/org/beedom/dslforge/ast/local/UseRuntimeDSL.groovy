@@ -8,8 +8,22 @@ import java.lang.annotation.Target
 import org.codehaus.groovy.transform.GroovyASTTransformationClass
 
 
+/**
+ * The body of the annotated method is run as a closure by the DSLEngine shared by the process for
+ * the config file and environment. Each call has its own Binding.
+ */
 @Retention(RetentionPolicy.SOURCE)
 @Target([ElementType.METHOD])
 @GroovyASTTransformationClass(["org.beedom.dslforge.ast.local.UseRuntimeDSLTransformation"])
 public @interface UseRuntimeDSL {
-}
\ No newline at end of file
+
+    /**
+     * Path of the DSL config file
+     */
+    String configFile() default "conf/DSLConfig.groovy"
+
+    /**
+     * Environment of the DSL config file
+     */
+    String configEnv() default "development"
+}
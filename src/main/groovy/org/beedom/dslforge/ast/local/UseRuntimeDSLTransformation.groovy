@@ -4,19 +4,27 @@ import org.beedom.dslforge.DSLEngine
 import org.codehaus.groovy.ast.ASTNode
 import org.codehaus.groovy.ast.AnnotationNode
 import org.codehaus.groovy.ast.ClassHelper
+import org.codehaus.groovy.ast.ClassNode
+import org.codehaus.groovy.ast.FieldNode
 import org.codehaus.groovy.ast.MethodNode
 import org.codehaus.groovy.ast.Parameter;
 import org.codehaus.groovy.ast.expr.ArgumentListExpression
+import org.codehaus.groovy.ast.expr.BinaryExpression
+import org.codehaus.groovy.ast.expr.BooleanExpression
 import org.codehaus.groovy.ast.expr.ClosureExpression
 import org.codehaus.groovy.ast.expr.ConstantExpression
 import org.codehaus.groovy.ast.expr.ConstructorCallExpression
-import org.codehaus.groovy.ast.expr.DeclarationExpression
 import org.codehaus.groovy.ast.expr.Expression
+import org.codehaus.groovy.ast.expr.FieldExpression
 import org.codehaus.groovy.ast.expr.MethodCallExpression
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression
 import org.codehaus.groovy.ast.expr.VariableExpression
 import org.codehaus.groovy.ast.stmt.BlockStatement
+import org.codehaus.groovy.ast.stmt.EmptyStatement
 import org.codehaus.groovy.ast.stmt.ExpressionStatement
+import org.codehaus.groovy.ast.stmt.IfStatement
 import org.codehaus.groovy.ast.stmt.Statement
+import org.codehaus.groovy.classgen.VariableScopeVisitor
 import org.codehaus.groovy.control.CompilePhase
 import org.codehaus.groovy.control.SourceUnit
 import org.codehaus.groovy.control.messages.SyntaxErrorMessage
@@ -26,10 +34,17 @@ import org.codehaus.groovy.syntax.Types
 import org.codehaus.groovy.transform.ASTTransformation
 import org.codehaus.groovy.transform.GroovyASTTransformation
 
+import java.lang.reflect.Modifier
+
 
 @GroovyASTTransformation(phase = CompilePhase.SEMANTIC_ANALYSIS)
 public class UseRuntimeDSLTransformation implements ASTTransformation {
 
+    /**
+     * Key of the node metadata of the class containing the engine fields by their config and environment
+     */
+    private static final String ENGINE_FIELDS = UseRuntimeDSLTransformation.name + ".engineFields"
+
     /**
 	 *
 	 * @param astNodes
@@ -42,10 +57,17 @@ public class UseRuntimeDSLTransformation implements ASTTransformation {
             return
         }
 
+        AnnotationNode annotation  = astNodes[0]
         MethodNode annotatedMethod = astNodes[1]
 
+        String configFile = getMemberValue(annotation, "configFile", "conf/DSLConfig.groovy")
+        String configEnv  = getMemberValue(annotation, "configEnv", "development")
+
+        FieldNode engineField = getEngineField(annotatedMethod.declaringClass, configFile, configEnv)
+
+        //the closure has no parameters, it refers to the parameters of the method
         ClosureExpression cl = new ClosureExpression(
-            copyParameters(annotatedMethod.parameters),
+            Parameter.EMPTY_ARRAY,
             new BlockStatement(annotatedMethod.code.statements as Statement[], annotatedMethod.code.variableScope.copy())
         )
         cl.variableScope = cl.code.variableScope.copy()
@@ -54,20 +76,63 @@ public class UseRuntimeDSLTransformation implements ASTTransformation {
 
         existingStatements.clear()
 
-        existingStatements.add(initDSLE())
-        existingStatements.add(callDSLERun(cl))
+        existingStatements.add(initDSLE(engineField, configFile, configEnv))
+        existingStatements.add(callDSLERun(engineField, cl))
+
+        //the parameters of the method became shared variables of the closure
+        new VariableScopeVisitor(sourceUnit).visitClass(annotatedMethod.declaringClass)
     }
 
-	
-	private Parameter[] copyParameters(Parameter[] orig) {
-		Parameter[] copy = new Parameter[orig.length]
-		for (int i = 0; i < orig.length; i++) {
-			copy[i] = orig[i].clone();
-		} 
-		return copy
-//		return Arrays.copyOf(orig, orig.length)
-	}
 
+    /**
+     * 
+     * @param annotation
+     * @param name
+     * @param defaultValue
+     * @return the value of the annotation member, or the default value if it was not given
+     */
+    private String getMemberValue(AnnotationNode annotation, String name, String defaultValue) {
+        Expression member = annotation.getMember(name)
+
+        return (member instanceof ConstantExpression) ? member.value : defaultValue
+    }
+
+
+    /**
+     * Returns the static field holding the DSLEngine of the config file and environment, it is
+     * added to the class by the first method using the same config. The field is volatile, as the
+     * methods can be called by many threads, and the engine has to be fully visible to all of them.
+     * The fields are numbered, and kept in the metadata of the class node by their config and environment.
+     * 
+     * @param classNode
+     * @param configFile
+     * @param configEnv
+     * @return the FieldNode
+     */
+    private FieldNode getEngineField(ClassNode classNode, String configFile, String configEnv) {
+        Map fields = classNode.getNodeMetaData(ENGINE_FIELDS)
+
+        if(fields == null) {
+            fields = [:]
+            classNode.setNodeMetaData(ENGINE_FIELDS, fields)
+        }
+
+        List key = [configFile, configEnv]
+
+        if(!fields[key]) {
+            int index = fields.size()
+
+            while(classNode.getField('$dslEngine_' + index)) {
+                index++
+            }
+
+            fields[key] = classNode.addField('$dslEngine_' + index, Modifier.PRIVATE | Modifier.STATIC | Modifier.VOLATILE,
+                                             ClassHelper.make(DSLEngine.class), null)
+        }
+        return fields[key]
+    }
+
+	
 	/**
 	 * 
 	 * @param astNodes
@@ -87,31 +152,54 @@ public class UseRuntimeDSLTransformation implements ASTTransformation {
 
 
 	/**
+	 * Lazy initialisation of the static field with the DSLEngine shared by the process
 	 * 
+	 * @param engineField
+	 * @param configFile
+	 * @param configEnv
 	 * @return
 	 */
-	public Statement initDSLE() {
-		return new ExpressionStatement(
-			new DeclarationExpression(
-				new VariableExpression("dsle"),
-				new Token(Types.ASSIGNMENT_OPERATOR, "=", -1, -1),
-				new ConstructorCallExpression(ClassHelper.make(DSLEngine.class), new ArgumentListExpression())
-			)
+	public Statement initDSLE(FieldNode engineField, String configFile, String configEnv) {
+		return new IfStatement(
+			new BooleanExpression(
+				new BinaryExpression(
+					new FieldExpression(engineField),
+					new Token(Types.COMPARE_EQUAL, "==", -1, -1),
+					ConstantExpression.NULL
+				)
+			),
+			new ExpressionStatement(
+				new BinaryExpression(
+					new FieldExpression(engineField),
+					new Token(Types.ASSIGN, "=", -1, -1),
+					new StaticMethodCallExpression(
+						ClassHelper.make(DSLEngine.class),
+						"getSharedEngine",
+						new ArgumentListExpression(new ConstantExpression(configFile), new ConstantExpression(configEnv))
+					)
+				)
+			),
+			EmptyStatement.INSTANCE
 		)
 	}
 	
 	
 	/**
+	 * The closure is run with a new Binding, so the calls do not share their variables
 	 * 
+	 * @param engineField
 	 * @param cl
 	 * @return
 	 */
-    private Statement callDSLERun(Expression cl) {
+    private Statement callDSLERun(FieldNode engineField, Expression cl) {
         return new ExpressionStatement(
             new MethodCallExpression(
-                new VariableExpression("dsle"), 
+                new FieldExpression(engineField), 
 				"run", 
-				new ArgumentListExpression( cl )
+				new ArgumentListExpression( 
+					cl, 
+					new ConstructorCallExpression(ClassHelper.make(Binding.class), new ArgumentListExpression()) 
+				)
             )
         )
     }
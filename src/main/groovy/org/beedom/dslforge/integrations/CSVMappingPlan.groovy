@@ -0,0 +1,257 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.integrations
+
+
+/**
+ * The header returned by OpenCSVCategory.getCsvHeader() compiled into a flat plan. Each nested Map of
+ * the row (i.e. each distinct prefix of the header paths) gets a slot, which records its parent slot,
+ * its name and the index of the repeating section. A row is filled by walking the columns: the slots
+ * first used by the column are resolved from their parents, then the value is put into the Map of the
+ * slot of the column. The result is the same as calling convertNamesToMaps() for each column, unless
+ * the type of the column was given or inferred.
+ *
+ * @author zs.myth
+ */
+class CSVMappingPlan {
+
+    /**
+     * Slot 0 is the Map of the row
+     */
+    private final int[] slotParents
+    private final String[] slotNames
+    private final int[] slotIndexes
+
+    private final int[] columnSlots
+    private final String[] columnNames
+
+    /**
+     * Slots resolved before the value of the column is put, in the order of the paths
+     */
+    private final int[][] columnOpens
+
+    /**
+     * Type of each column, null if the type is guessed from each value
+     */
+    private final CSVValueType[] columnTypes
+
+
+    /**
+     *
+     * @param header List of Lists of names, one List for each column e.g. ['contacts', 'address[0]', 'purpose']
+     */
+    public CSVMappingPlan(List header) {
+        this(header, null)
+    }
+
+
+    /**
+     *
+     * @param header List of Lists of names, one List for each column e.g. ['contacts', 'address[0]', 'purpose']
+     * @param types Map of the path of the column (e.g. 'contacts.address[0].purpose') to its type,
+     *              see CSVValueType.forType()
+     */
+    public CSVMappingPlan(List header, Map types) {
+        assert header, "no header is availalle"
+
+        List parents = [-1]
+        List names   = [null]
+        List indexes = [-1]
+
+        //path prefix to slot
+        Map slots = [:]
+
+        columnSlots = new int[header.size()]
+        columnNames = new String[header.size()]
+        columnOpens = new int[header.size()][]
+        columnTypes = new CSVValueType[header.size()]
+
+        header.eachWithIndex { List path, int column ->
+            assert path, "header of column $column is empty"
+
+            int parent = 0
+            List opens = []
+
+            for (int i = 0; i < path.size() - 1; i++) {
+                List prefix = path[0..i]
+                Integer slot = slots[prefix]
+
+                if(slot == null) {
+                    def segment = parseName(path[i])
+
+                    slot = parents.size()
+                    parents << parent
+                    names   << segment.name
+                    indexes << segment.index
+
+                    slots[prefix] = slot
+                    opens << slot
+                }
+                parent = slot
+            }
+
+            columnSlots[column] = parent
+            columnNames[column] = parseName(path.last()).name
+            columnOpens[column] = opens as int[]
+
+            def type = types?.get(path.join('.'))
+
+            if(type) {
+                columnTypes[column] = CSVValueType.forType(type)
+            }
+        }
+
+        slotParents = parents as int[]
+        slotNames   = names as String[]
+        slotIndexes = indexes as int[]
+    }
+
+
+    /**
+     *
+     * @return the number of columns
+     */
+    public int getSize() {
+        return columnSlots.length
+    }
+
+
+    /**
+     *
+     * @param column
+     * @return the type of the column, or null if it is guessed from each value
+     */
+    public CSVValueType getColumnType(int column) {
+        return columnTypes[column]
+    }
+
+
+    /**
+     * Infers the type of the columns which have no type, using the values of the lines. The type of a column
+     * without values is guessed from each value. It shall be called before the plan is used to fill the rows.
+     *
+     * @param lines the first data lines
+     * @param skipLeftCols number of columns skipped at the beginning of the line
+     * @param dateFormater
+     */
+    public void inferTypes(List lines, int skipLeftCols, String dateFormater) {
+        for (int column = 0; column < columnTypes.length; column++) {
+            if(columnTypes[column]) {
+                continue
+            }
+
+            CSVValueType inferred = null
+
+            lines.each { String[] line ->
+                String value = (column + skipLeftCols < line.length) ? line[column + skipLeftCols]?.trim() : null
+
+                if(value) {
+                    CSVValueType type = CSVValueType.classify(value) ?:
+                                        (CSVValueType.parseDate(value, dateFormater) ? CSVValueType.DATE : CSVValueType.STRING)
+
+                    inferred = CSVValueType.widen(inferred, type)
+                }
+            }
+            columnTypes[column] = inferred
+        }
+    }
+
+
+    /**
+     * Puts the converted values of the line into the Map. Existing nested Maps and Lists are reused, so the
+     * same Map can be filled by many lines.
+     *
+     * @param map the Map of the row
+     * @param line the data line as returned by OpenCSV
+     * @param skipLeftCols number of columns skipped at the beginning of the line
+     * @param trim
+     * @param dateFormater
+     * @return the Map of the row
+     */
+    public Map fillRow(Map map, String[] line, int skipLeftCols, boolean trim, String dateFormater) {
+        Map[] maps = new Map[slotParents.length]
+        maps[0] = map
+
+        for (int column = 0; column < columnSlots.length; column++) {
+            int[] opens = columnOpens[column]
+
+            for (int i = 0; i < opens.length; i++) {
+                int slot = opens[i]
+                maps[slot] = resolve(maps[slotParents[slot]], slotNames[slot], slotIndexes[slot])
+            }
+
+            CSVValueType type = columnTypes[column]
+            String value = line[column + skipLeftCols]
+
+            maps[columnSlots[column]].put(columnNames[column],
+                type ? type.convert(value, trim, dateFormater) : OpenCSVCategory.convertValue(value, trim, dateFormater))
+        }
+        return map
+    }
+
+
+    /**
+     * Returns the nested Map, it is created if it does not exist
+     *
+     * @param parent
+     * @param name
+     * @param index the index in the List of the repeating section, or -1
+     * @return the Map
+     */
+    private static Map resolve(Map parent, String name, int index) {
+        if(index == -1) {
+            Map map = (Map)parent.get(name)
+
+            if(!map) {
+                map = [:]
+                parent.put(name, map)
+            }
+            return map
+        }
+
+        List list = (List)parent.get(name)
+
+        if(!list) {
+            list = []
+            parent.put(name, list)
+        }
+
+        Map map = (index < list.size()) ? (Map)list.get(index) : null
+
+        if(!map) {
+            map = [:]
+            list[index] = map
+        }
+        return map
+    }
+
+
+    /**
+     *
+     * @param name e.g. 'address' or 'address[0]'
+     * @return Map of name and index, index is -1 if the name has no index
+     */
+    public static Map parseName(String name) {
+        int index = -1
+
+        if(name.contains('[') && name.endsWith(']')) {
+            int i = name.indexOf('[')
+            index = name.substring(i+1,name.size()-1) as int
+            name = name.substring(0, i)
+        }
+        return [name: name, index: index]
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.integrations
+
+import java.text.ParsePosition
+import java.text.SimpleDateFormat
+
+
+/**
+ * Type of a CSV column, which converts the String returned by OpenCSV. The type of a column is given by
+ * the columnTypes option, or it is inferred from the first rows (inferTypes option). A value which does not
+ * match the type of its column is converted by guessing its type, see OpenCSVCategory.convertValue().
+ *
+ * @author zs.myth
+ */
+enum CSVValueType {
+
+    STRING, INTEGER, BIG_INTEGER, BIG_DECIMAL, DATE
+
+    /**
+     * Pattern of Date.toString(), used if no dateFormater was given
+     */
+    public static final String TO_STRING_DATE = "EEE MMM dd HH:mm:ss zzz yyyy"
+
+    /**
+     * SimpleDateFormat is not thread-safe, so each thread has its own instances
+     */
+    private static final ThreadLocal<Map<String, SimpleDateFormat>> dateFormats = new ThreadLocal<Map<String, SimpleDateFormat>>() {
+        protected Map<String, SimpleDateFormat> initialValue() {
+            return new HashMap<String, SimpleDateFormat>()
+        }
+    }
+
+
+    /**
+     *
+     * @param value Is a String as returned by OpensCSV
+     * @param trim
+     * @param dateFormater
+     * @return the converted value
+     */
+    public Object convert(String value, boolean trim, String dateFormater) {
+        if (!value) {
+            //value is null or empty string
+            return value
+        }
+
+        if(this == STRING) {
+            return trim ? value.trim() : value
+        }
+
+        Object converted = (this == DATE) ? parseDate(value.trim(), dateFormater) : parseNumber(value.trim(), this)
+
+        return (converted != null) ? converted : OpenCSVCategory.convertValue(value, trim, dateFormater)
+    }
+
+
+    /**
+     * Single pass classification of the number, the value is not parsed
+     *
+     * @param value the trimmed value
+     * @return INTEGER, BIG_INTEGER, BIG_DECIMAL, or null if the value is not a number
+     */
+    public static CSVValueType classify(String value) {
+        int length = value.length()
+        int i = 0
+        int digits = 0
+        boolean decimal = false
+
+        if(i < length && (value.charAt(i) == (char)'-' || value.charAt(i) == (char)'+')) {
+            i++
+        }
+
+        int start = i
+
+        for (; i < length; i++) {
+            char c = value.charAt(i)
+
+            if(Character.isDigit(c)) {
+                digits++
+            }
+            else if(c == (char)'.' && !decimal) {
+                decimal = true
+            }
+            else {
+                break
+            }
+        }
+
+        if(!digits) {
+            return null
+        }
+
+        //exponent
+        if(i < length && (value.charAt(i) == (char)'e' || value.charAt(i) == (char)'E')) {
+            decimal = true
+            i++
+
+            if(i < length && (value.charAt(i) == (char)'-' || value.charAt(i) == (char)'+')) {
+                i++
+            }
+
+            int exponent = i
+            while (i < length && Character.isDigit(value.charAt(i))) {
+                i++
+            }
+
+            if(i == exponent) {
+                return null
+            }
+        }
+
+        if(i != length) {
+            return null
+        }
+
+        if(decimal) {
+            return BIG_DECIMAL
+        }
+
+        //Integer.MAX_VALUE has 10 digits
+        if(digits < 10) {
+            return INTEGER
+        }
+        if(digits == 10) {
+            long l = Long.parseLong(value.substring(start))
+            return (l <= Integer.MAX_VALUE || (l == -(long)Integer.MIN_VALUE && value.charAt(0) == (char)'-')) ? INTEGER : BIG_INTEGER
+        }
+        return BIG_INTEGER
+    }
+
+
+    /**
+     *
+     * @param value the trimmed value
+     * @param type the expected type, or null to use the type returned by classify()
+     * @return the number, or null if the value is not a number of the type
+     */
+    public static Object parseNumber(String value, CSVValueType type) {
+        CSVValueType actual = classify(value)
+
+        if(!actual) {
+            return null
+        }
+
+        if(!type) {
+            type = actual
+        }
+
+        //a narrower number is also accepted by the type
+        if(actual.ordinal() > type.ordinal()) {
+            return null
+        }
+
+        String number = (value.charAt(0) == (char)'+') ? value.substring(1) : value
+
+        switch(type) {
+            case INTEGER:
+                return Integer.valueOf(number)
+            case BIG_INTEGER:
+                return new BigInteger(number)
+            default:
+                return new BigDecimal(number)
+        }
+    }
+
+
+    /**
+     *
+     * @param value the trimmed value
+     * @param dateFormater the pattern of SimpleDateFormat, or null to use the format of Date.toString()
+     * @return the Date, or null if the value could not be parsed
+     */
+    public static Date parseDate(String value, String dateFormater) {
+        ParsePosition position = new ParsePosition(0)
+        Date date = getDateFormat(dateFormater).parse(value, position)
+
+        return (position.index == 0) ? null : date
+    }
+
+
+    /**
+     *
+     * @param dateFormater the pattern of SimpleDateFormat, or null
+     * @return the SimpleDateFormat of the current thread
+     */
+    private static SimpleDateFormat getDateFormat(String dateFormater) {
+        String pattern = dateFormater ?: TO_STRING_DATE
+        Map<String, SimpleDateFormat> formats = dateFormats.get()
+        SimpleDateFormat format = formats.get(pattern)
+
+        if(format == null) {
+            format = dateFormater ? new SimpleDateFormat(pattern) : new SimpleDateFormat(pattern, Locale.US)
+            formats.put(pattern, format)
+        }
+        return format
+    }
+
+
+    /**
+     * Returns the wider type of the two, used when the type of the column is inferred
+     *
+     * @param a
+     * @param b
+     * @return the type accepting the values of both types
+     */
+    public static CSVValueType widen(CSVValueType a, CSVValueType b) {
+        if(a == null || a == b) {
+            return b
+        }
+        if(a.numeric && b.numeric) {
+            return (a.ordinal() > b.ordinal()) ? a : b
+        }
+        return STRING
+    }
+
+
+    /**
+     *
+     * @return true for INTEGER, BIG_INTEGER and BIG_DECIMAL
+     */
+    public boolean isNumeric() {
+        return this == INTEGER || this == BIG_INTEGER || this == BIG_DECIMAL
+    }
+
+
+    /**
+     *
+     * @param type a CSVValueType, its name (e.g. 'bigDecimal') or one of the classes String, Integer,
+     *             BigInteger, BigDecimal, Date
+     * @return the CSVValueType
+     */
+    public static CSVValueType forType(Object type) {
+        if(type instanceof CSVValueType) {
+            return type
+        }
+
+        if(type instanceof Class) {
+            CSVValueType result = [(String): STRING, (Integer): INTEGER, (BigInteger): BIG_INTEGER,
+                                   (BigDecimal): BIG_DECIMAL, (Date): DATE][type]
+
+            assert result, "Type $type is not supported for CSV columns"
+            return result
+        }
+
+        String name = type.toString().replaceAll(/([a-z])([A-Z])/, '$1_$2').toUpperCase()
+        return Enum.valueOf(CSVValueType, name)
+    }
+}
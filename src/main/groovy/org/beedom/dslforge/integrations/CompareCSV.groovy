@@ -94,6 +94,9 @@ class CompareCSV {
         else {
             log.debug "using external header: ${ds.header}"
         }
+
+        ds.plan   = new CSVMappingPlan(ds.header, ds.options.columnTypes)
+        ds.sample = OpenCSVCategory.readSample(ds.reader, ds.plan, ds.options)
     }
 
 
@@ -106,19 +109,16 @@ class CompareCSV {
         String[] nextLine;
         def map = [:]
 
-        if(!ds.header) {
+        if(!ds.plan) {
             setHeader(ds)
         }
 
-        nextLine = ds.reader.readNext()
+        nextLine = ds.sample ? ds.sample.removeFirst() : ds.reader.readNext()
 
         if (nextLine) {
             assert ds.header.size() == nextLine.size()-(ds.options.skipLeftCols+ds.options.skipRightCols), "Header size must be equal with the size of data line"
 
-            ds.header.eachWithIndex {
-                List names, i ->
-                OpenCSVCategory.convertNamesToMaps(map, names, ds.options.trimData, ds.options.dateFormater, nextLine[i+ds.options.skipLeftCols])
-            }
+            ds.plan.fillRow(map, nextLine, ds.options.skipLeftCols, ds.options.trimData, ds.options.dateFormater)
 
             log.info "map for closure: $map"
 
@@ -15,8 +15,6 @@
  */
 package org.beedom.dslforge.integrations
 
-import java.text.ParseException;
-
 import groovy.util.logging.Slf4j
 
 import au.com.bytecode.opencsv.CSVReader
@@ -31,6 +29,11 @@ import au.com.bytecode.opencsv.CSVParser
 @Slf4j
 class OpenCSVCategory {
 
+    /**
+     * The methods registered by dsl.categoryMode = 'metaClass', the other static methods are helpers
+     */
+    static final List categoryMethods = ["openCsvHeader", "openCsvEachRow"]
+
 	/**
 	 * 
 	 * @param reader
@@ -89,7 +92,8 @@ class OpenCSVCategory {
 
 
     /**
-     * Recursively process the list of names to build the nested Maps and Lists
+     * Recursively process the list of names to build the nested Maps and Lists. The rows of a file are
+     * converted by CSVMappingPlan instead, which does the same without parsing the names for each cell.
      *
      * @param map
      * @param names List of String for one column e.g. 'contacts.address[0].purpose'
@@ -97,17 +101,12 @@ class OpenCSVCategory {
      * @return
      */
     public static void convertNamesToMaps(Map map, List names, boolean trim, String dateFormater, String value) {
-        String name = names.head()
         List namesTail = names.tail()
-        int index = -1
 
         //Dealing with repeating section, so handle it as List of Maps
-        //TODO: use regex here instead of string methods
-        if(name.contains('[') && name.endsWith(']')) {
-            int i = name.indexOf('[')
-            index = name.substring(i+1,name.size()-1) as int
-            name = name.substring(0, i)
-        }
+        def segment = CSVMappingPlan.parseName(names.head())
+        String name = segment.name
+        int index   = segment.index
 
         log.debug "$name index:$index names:$names value:'$value'"
 
@@ -128,37 +127,39 @@ class OpenCSVCategory {
         }
         else {
 			//Assign the value to the map and cast it to a real type
-            if (!value) {
-                //value is null or empty string
-                map[name] = value
-            }
-            else if (value.isInteger()) {
-                map[name] = value.trim() as Integer
-            }
-            else if (value.isBigInteger()) {
-                map[name] = value.trim() as BigInteger
-            }
-            else if (value.isBigDecimal()) {
-                map[name] = value.trim() as BigDecimal
-            }
-            else {
-                try {
-                    if(dateFormater) {
-                        map[name] = new Date().parse(dateFormater, value.trim())
-                    }
-                    else {
-                        map[name] = new Date().parseToStringDate(value.trim())
-                    }
-                } catch (ParseException e) {
-                    //OpenCSV always returns String
-                    map[name] = trim && value ? value.trim() : value
-                }
-            }
-            
+            map[name] = convertValue(value, trim, dateFormater)
+
             log.debug "map[name] = " + map[name].dump()
         }
     }
 
+
+    /**
+     * Casts the value to a real type by guessing it from the value. Numbers are classified in a single
+     * pass, and dates are parsed without exceptions by the SimpleDateFormat cached for the thread.
+     *
+     * @param value Is a String as returned by OpensCSV
+     * @param trim
+     * @param dateFormater
+     * @return Integer, BigInteger, BigDecimal, Date or the String
+     */
+    public static Object convertValue(String value, boolean trim, String dateFormater) {
+        if (!value) {
+            //value is null or empty string
+            return value
+        }
+
+        String trimmed = value.trim()
+        Object converted = CSVValueType.parseNumber(trimmed, null)
+
+        if (converted == null) {
+            converted = CSVValueType.parseDate(trimmed, dateFormater)
+        }
+
+        //OpenCSV always returns String
+        return (converted != null) ? converted : (trim ? trimmed : value)
+    }
+
     /**
      *
      * @param reader
@@ -177,7 +178,12 @@ class OpenCSVCategory {
         //CSV has no header
         if(!headerRows && !header) {
             log.warn "No header was specified so reverting to original openCsv behaviour"
-            //TODO: processing lines could be done in parallel, but be careful as closure written by user
+
+            if(options.parallelism > 1) {
+                new ParallelCSVProcessor(null, options).process({ reader.readNext() }, cl)
+                return
+            }
+
             while ((nextLine = reader.readNext()) != null) {
                 cl(nextLine,index++)
             }
@@ -192,16 +198,21 @@ class OpenCSVCategory {
 
             assert header, "no header is availalle"
 
+            CSVMappingPlan plan = new CSVMappingPlan(header, options.columnTypes)
+            LinkedList sample = readSample(reader, plan, options)
+
+            if(options.parallelism > 1) {
+                new ParallelCSVProcessor(plan, options).process({ sample ? sample.removeFirst() : reader.readNext() }, cl)
+                return
+            }
+
             def map = [:]
 
-            //TODO: processing lines could be done in parallel, but be careful as closure written by user
-            while ((nextLine = reader.readNext()) != null) {
+            while ((nextLine = (sample ? sample.removeFirst() : reader.readNext())) != null) {
                 assert header.size() == nextLine.size() - (skipLeftCols + skipRightCols), "Header size must be equal with the size of data line"
 
-                //header is a List of Lists
-                header.eachWithIndex { List names, i ->
-                    convertNamesToMaps(map, names, options.trimData, options.dateFormater, nextLine[i+skipLeftCols])
-                }
+                //header is a List of Lists, compiled into the plan
+                plan.fillRow(map, nextLine, skipLeftCols, options.trimData, options.dateFormater)
 
                 log.info "map given to closure of user: $map"
 
@@ -211,6 +222,30 @@ class OpenCSVCategory {
     }
 
 
+    /**
+     * Reads the first lines to infer the types of the columns if the inferTypes option is given
+     *
+     * @param reader
+     * @param plan the plan receiving the inferred types
+     * @param options the inferTypes option is the number of lines to be read
+     * @return the lines read, they shall be processed before reading the next line
+     */
+    public static LinkedList readSample(CSVReader reader, CSVMappingPlan plan, Map options) {
+        LinkedList sample = new LinkedList()
+
+        if(options.inferTypes) {
+            String[] nextLine
+
+            while (sample.size() < (options.inferTypes as int) && (nextLine = reader.readNext()) != null) {
+                sample << nextLine
+            }
+
+            plan.inferTypes(sample, options.skipLeftCols ?: 0, options.dateFormater)
+        }
+        return sample
+    }
+
+
     /**
      *
      * @param options
@@ -229,6 +264,9 @@ class OpenCSVCategory {
         options.quoteChar     = options.quoteChar     ?: CSVParser.DEFAULT_QUOTE_CHARACTER
         options.escapeChar    = options.escapeChar    ?: CSVParser.DEFAULT_ESCAPE_CHARACTER
         options.strictQuotes  = options.strictQuotes  ?: CSVParser.DEFAULT_STRICT_QUOTES
+        options.parallelism   = options.parallelism   ?: 1
+        options.batchSize     = options.batchSize     ?: 100
+        options.ordered       = options.ordered       ?: false
         //options.dateFormater  = options.dateFormater  ?: 'yyyy/MM/dd'
     }
 
@@ -284,6 +322,14 @@ class OpenCSVCategory {
      * @param cl
      */
     public static void openCsvEachRow(File self, Map options, Closure cl) {
+        if(options?.splitParsing) {
+            options.parallelism = options.parallelism ?: Runtime.runtime.availableProcessors()
+            setDefaultOptions(options)
+
+            new SplitCSVParser(self, options).process(cl)
+            return
+        }
+
         setDefaultOptions(options)
 
         CSVReader reader = new CSVReader(
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.integrations
+
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicReference
+
+
+/**
+ * Processes the data lines of a CSV file on a pool of worker threads (parallelism option). The lines are
+ * read in batches (batchSize option), and at most two batches per worker are in flight, so the reader
+ * waits for the workers instead of loading the whole file.
+ * <ul>
+ * <li>unordered: the workers map the lines to Maps and call the closure, so the closure is called by many
+ * threads at the same time, and the rows are not in the order of the file</li>
+ * <li>ordered: the workers map the lines in parallel, and call the closure in the order of the file, one
+ * batch after the other. The futures of the batches are kept in a bounded queue, which is the reorder
+ * buffer.</li>
+ * </ul>
+ * Each row is a new Map, or the String[] of the line if there is no header (the plan is null). The first
+ * exception thrown by the closure stops the reading, and it is rethrown.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class ParallelCSVProcessor {
+
+    final CSVMappingPlan plan
+    final int parallelism
+    final int batchSize
+    final boolean ordered
+
+    private final int skipLeftCols
+    private final int columns
+    private final boolean trimData
+    private final String dateFormater
+
+    /**
+     *
+     * @param p the plan of the header, or null if the CSV has no header
+     * @param options parallelism, batchSize, ordered, skipLeftCols, skipRightCols, trimData and dateFormater
+     */
+    public ParallelCSVProcessor(CSVMappingPlan p, Map options) {
+        plan         = p
+        parallelism  = options.parallelism as int
+        batchSize    = Math.max(1, (options.batchSize ?: 100) as int)
+        ordered      = options.ordered as boolean
+        skipLeftCols = (options.skipLeftCols ?: 0) as int
+        columns      = p ? p.size + skipLeftCols + ((options.skipRightCols ?: 0) as int) : 0
+        trimData     = options.trimData as boolean
+        dateFormater = options.dateFormater
+    }
+
+
+    /**
+     *
+     * @param nextLine closure returning the next data line, or null at the end of the file
+     * @param cl the closure of the user called with the Map of the row and its index
+     */
+    public void process(Closure nextLine, Closure cl) {
+        log.debug "Processing CSV rows using $parallelism thread(s), batchSize: $batchSize, ordered: $ordered"
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism)
+
+        try {
+            if(ordered) {
+                processOrdered(pool, nextLine, cl)
+            }
+            else {
+                processUnordered(pool, nextLine, cl)
+            }
+        }
+        finally {
+            pool.shutdownNow()
+        }
+    }
+
+
+    /**
+     *
+     * @param pool
+     * @param nextLine
+     * @param cl
+     */
+    private void processUnordered(ExecutorService pool, Closure nextLine, Closure cl) {
+        int maxInFlight = parallelism * 2
+        Semaphore inFlight = new Semaphore(maxInFlight)
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>()
+        int index = 0
+
+        List batch = null
+
+        while(!failure.get() && (batch = readBatch(nextLine))) {
+            List lines = batch
+            int first  = index
+            index     += lines.size()
+
+            inFlight.acquire()
+
+            pool.execute({
+                try {
+                    lines.eachWithIndex { String[] line, int i -> cl(mapRow(line), first + i) }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e)
+                }
+                finally {
+                    inFlight.release()
+                }
+            } as Runnable)
+        }
+
+        //wait for the batches in flight
+        inFlight.acquire(maxInFlight)
+
+        if(failure.get()) {
+            throw failure.get()
+        }
+    }
+
+
+    /**
+     * Each batch waits for the closure calls of the previous batch, so the closure is called in the order
+     * of the file, and by one worker at a time. The calling thread keeps the futures of the batches in the
+     * reorder buffer, and waits for the oldest one when the buffer is full.
+     *
+     * @param pool
+     * @param nextLine
+     * @param cl
+     */
+    private void processOrdered(ExecutorService pool, Closure nextLine, Closure cl) {
+        BlockingQueue<Future> reorderBuffer = new ArrayBlockingQueue<Future>(parallelism * 2)
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>()
+        CountDownLatch previous = new CountDownLatch(0)
+        int index = 0
+
+        List batch = null
+
+        while(!failure.get() && (batch = readBatch(nextLine))) {
+            List lines = batch
+            int first  = index
+            index     += lines.size()
+
+            CountDownLatch before = previous
+            CountDownLatch done   = new CountDownLatch(1)
+            previous = done
+
+            if(reorderBuffer.remainingCapacity() == 0) {
+                waitFor(reorderBuffer.take())
+            }
+
+            reorderBuffer.put(pool.submit({
+                try {
+                    List rows = lines.collect { String[] line -> mapRow(line) }
+
+                    before.await()
+
+                    if(!failure.get()) {
+                        rows.eachWithIndex { row, int i -> cl(row, first + i) }
+                    }
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e)
+                }
+                finally {
+                    done.countDown()
+                }
+            } as Runnable))
+        }
+
+        while(!reorderBuffer.isEmpty()) {
+            waitFor(reorderBuffer.take())
+        }
+
+        if(failure.get()) {
+            throw failure.get()
+        }
+    }
+
+
+    /**
+     *
+     * @param batch
+     */
+    private static void waitFor(Future batch) {
+        try {
+            batch.get()
+        }
+        catch (ExecutionException e) {
+            throw e.cause
+        }
+    }
+
+
+    /**
+     *
+     * @param nextLine
+     * @return the next lines, or an empty List at the end of the file
+     */
+    private List readBatch(Closure nextLine) {
+        List batch = []
+        String[] line = null
+
+        while(batch.size() < batchSize && (line = nextLine()) != null) {
+            batch << line
+        }
+        return batch
+    }
+
+
+    /**
+     *
+     * @param line
+     * @return the new Map of the row, or the line itself if there is no header
+     */
+    private def mapRow(String[] line) {
+        if(!plan) {
+            return line
+        }
+
+        assert columns == line.size(), "Header size must be equal with the size of data line"
+
+        return plan.fillRow([:], line, skipLeftCols, trimData, dateFormater)
+    }
+}
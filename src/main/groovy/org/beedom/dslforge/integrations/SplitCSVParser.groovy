@@ -0,0 +1,482 @@
+/*
+ * Copyright 2003-2011 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.beedom.dslforge.integrations
+
+import groovy.util.logging.Slf4j
+
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.Charset
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+import au.com.bytecode.opencsv.CSVReader
+
+
+/**
+ * Parses the data lines of a large CSV file in parallel (splitParsing option). The file is memory-mapped
+ * and split into chunks (chunkSize option) at record boundaries:
+ * <ol>
+ * <li>the workers count the quotes of each chunk, escaped quotes are skipped</li>
+ * <li>the parity of the quotes before each chunk tells if the chunk starts inside a quoted field</li>
+ * <li>each chunk starts after the first newline which is not inside a quoted field</li>
+ * <li>the workers parse their chunks with CSVReader and map the rows using the CSVMappingPlan</li>
+ * </ol>
+ * With the ordered option the closure is called by the calling thread in the order of the file, each chunk
+ * has a bounded queue of rows, so the workers wait for the calling thread. Otherwise the closure is called
+ * by the workers, and the index of the row is the order of the calls. The charset (charset option, default
+ * is the charset of the platform) shall encode the newline, the quote and the escape character in one byte,
+ * like UTF-8 or ISO-8859-1 do.
+ *
+ * @author zs.myth
+ */
+@Slf4j
+class SplitCSVParser {
+
+    final File file
+    final Map options
+    final int parallelism
+    final long chunkSize
+    final int batchSize
+    final Charset charset
+
+    private final byte quote
+    private final byte escape
+
+    private static final byte NEWLINE = (byte)'\n'
+
+    /**
+     * Size of the mapped window used to find the record boundaries
+     */
+    private static final int SCAN_WINDOW = 1024 * 1024
+
+    /**
+     * Marks the end of the rows of a chunk in its queue
+     */
+    private static final List END = []
+
+
+    /**
+     *
+     * @param f the CSV file
+     * @param o the options of openCsvEachRow() after setDefaultOptions(), and parallelism, chunkSize, charset
+     */
+    public SplitCSVParser(File f, Map o) {
+        file        = f
+        options     = o
+        parallelism = Math.max(1, (o.parallelism ?: Runtime.runtime.availableProcessors()) as int)
+        chunkSize   = (o.chunkSize ?: 64L * 1024 * 1024) as long
+        batchSize   = Math.max(1, (o.batchSize ?: 100) as int)
+        charset     = o.charset ? Charset.forName(o.charset as String) : Charset.defaultCharset()
+        quote       = (byte)(o.quoteChar as char)
+        escape      = (byte)(o.escapeChar as char)
+
+        assert chunkSize > 0 && chunkSize < Integer.MAX_VALUE, "chunkSize must be between 0 and ${Integer.MAX_VALUE}"
+    }
+
+
+    /**
+     *
+     * @param cl the closure of the user called with the Map of the row and its index
+     */
+    public void process(Closure cl) {
+        CSVMappingPlan plan = createPlan()
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r")
+        FileChannel channel  = raf.channel
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism)
+
+        try {
+            long size      = channel.size()
+            long dataStart = skipRecords(channel, 0, options.skipRows as int, false)
+            dataStart      = skipRecords(channel, dataStart, options.headerRows as int, true)
+
+            List<Long> bounds = findBoundaries(channel, pool, dataStart, size)
+
+            log.debug "Parsing $file in ${bounds.size() - 1} chunk(s) using $parallelism thread(s)"
+
+            if(options.ordered) {
+                processOrdered(channel, pool, plan, bounds, cl)
+            }
+            else {
+                processUnordered(channel, pool, plan, bounds, cl)
+            }
+        }
+        finally {
+            pool.shutdownNow()
+            raf.close()
+        }
+    }
+
+
+    /**
+     * Reads the header (and the rows used to infer the types) by a CSVReader
+     *
+     * @return the plan of the header
+     */
+    private CSVMappingPlan createPlan() {
+        CSVReader reader = openReader(new InputStreamReader(new FileInputStream(file), charset), options.skipRows as int)
+
+        try {
+            List header = options.header
+
+            if(!header) {
+                assert options.headerRows, "splitParsing needs headerRows or header"
+                header = OpenCSVCategory.getCsvHeader(reader, options.headerRows, options.skipLeftCols, options.skipRightCols, options.trimHeader)
+            }
+
+            CSVMappingPlan plan = new CSVMappingPlan(header, options.columnTypes)
+            OpenCSVCategory.readSample(reader, plan, options)
+
+            return plan
+        }
+        finally {
+            reader.close()
+        }
+    }
+
+
+    /**
+     *
+     * @param reader
+     * @param skipRows
+     * @return the CSVReader configured by the options
+     */
+    private CSVReader openReader(Reader reader, int skipRows) {
+        return new CSVReader(reader,
+            options.separatorChar as char, options.quoteChar as char, options.escapeChar as char,
+            skipRows, options.strictQuotes as boolean)
+    }
+
+
+    /**
+     * Finds the start of the chunks, i.e. the first record boundary after each nominal split point
+     *
+     * @param channel
+     * @param pool
+     * @param dataStart the position of the first data line
+     * @param size the size of the file
+     * @return the positions of the chunks, the last one is the size of the file
+     */
+    private List<Long> findBoundaries(FileChannel channel, ExecutorService pool, long dataStart, long size) {
+        List<Long> starts = [dataStart]
+
+        for (long position = dataStart + chunkSize; position < size; position += chunkSize) {
+            //an escape character shall not be split from the character it escapes
+            while (position < size && readByte(channel, position - 1) == escape) {
+                position++
+            }
+            if(position < size) {
+                starts << position
+            }
+        }
+        starts << size
+
+        //1. parity of the quotes of each chunk
+        List<Future> parities = (0..<starts.size() - 1).collect { int k ->
+            pool.submit({ countQuotes(channel, starts[k], starts[k + 1]) % 2 == 1 } as Callable)
+        }
+
+        //2. quote state at the start of each chunk
+        List<Boolean> inQuotes = [false]
+        parities.each { Future odd -> inQuotes << (inQuotes.last() ^ odd.get()) }
+
+        //3. record boundary after the start of each chunk
+        List<Future> boundaries = (1..<starts.size() - 1).collect { int k ->
+            pool.submit({ nextRecord(channel, starts[k], inQuotes[k], size) } as Callable)
+        }
+
+        List<Long> bounds = [dataStart]
+        boundaries.each { Future boundary -> bounds << Math.max(bounds.last(), boundary.get()) }
+        bounds << size
+
+        return bounds
+    }
+
+
+    /**
+     *
+     * @param channel
+     * @param start
+     * @param end
+     * @return the number of quotes which are not escaped
+     */
+    private long countQuotes(FileChannel channel, long start, long end) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)
+        int length = buffer.limit()
+        long quotes = 0
+
+        for (int i = 0; i < length; i++) {
+            byte b = buffer.get(i)
+
+            if(b == escape && i + 1 < length && (buffer.get(i + 1) == quote || buffer.get(i + 1) == escape)) {
+                i++
+            }
+            else if(b == quote) {
+                quotes++
+            }
+        }
+        return quotes
+    }
+
+
+    /**
+     * Skips the lines (or records if quote aware) starting at the position
+     *
+     * @param channel
+     * @param position
+     * @param count number of lines or records
+     * @param quoteAware true if newlines inside quoted fields are skipped
+     * @return the position after the last newline
+     */
+    private long skipRecords(FileChannel channel, long position, int count, boolean quoteAware) {
+        long size = channel.size()
+
+        count.times {
+            position = quoteAware ? nextRecord(channel, position, false, size) : skipLine(channel, position, size)
+        }
+        return position
+    }
+
+
+    /**
+     *
+     * @param channel
+     * @param position
+     * @param size
+     * @return the position after the next newline, or the size of the file
+     */
+    private long skipLine(FileChannel channel, long position, long size) {
+        while (position < size) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SCAN_WINDOW, size - position))
+
+            for (int i = 0; i < buffer.limit(); i++) {
+                if(buffer.get(i) == NEWLINE) {
+                    return position + i + 1
+                }
+            }
+            position += buffer.limit()
+        }
+        return size
+    }
+
+
+    /**
+     *
+     * @param channel
+     * @param position
+     * @param inQuotes the quote state at the position
+     * @param size
+     * @return the position after the next newline which is not inside a quoted field, or the size of the file
+     */
+    private long nextRecord(FileChannel channel, long position, boolean inQuotes, long size) {
+        while (position < size) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SCAN_WINDOW, size - position))
+            int length = buffer.limit()
+            int i = 0
+
+            for (; i < length; i++) {
+                byte b = buffer.get(i)
+
+                if(b == escape && i + 1 == length && position + length < size) {
+                    //the escaped character is in the next window
+                    break
+                }
+                else if(b == escape && i + 1 < length && (buffer.get(i + 1) == quote || buffer.get(i + 1) == escape)) {
+                    i++
+                }
+                else if(b == quote) {
+                    inQuotes = !inQuotes
+                }
+                else if(b == NEWLINE && !inQuotes) {
+                    return position + i + 1
+                }
+            }
+            position += i
+        }
+        return size
+    }
+
+
+    /**
+     *
+     * @param channel
+     * @param position
+     * @return the byte at the position
+     */
+    private byte readByte(FileChannel channel, long position) {
+        ByteBuffer buffer = ByteBuffer.allocate(1)
+        channel.read(buffer, position)
+        return buffer.get(0)
+    }
+
+
+    /**
+     * Parses the chunk and passes the batches of rows to the closure
+     *
+     * @param channel
+     * @param plan
+     * @param start
+     * @param end
+     * @param cl called with the List of Maps
+     */
+    private void parseChunk(FileChannel channel, CSVMappingPlan plan, long start, long end, Closure cl) {
+        assert end - start < Integer.MAX_VALUE, "Record is too long: $start - $end"
+
+        if(start == end) {
+            return
+        }
+
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start)
+        CSVReader reader = openReader(new InputStreamReader(new BufferInputStream(buffer), charset), 0)
+
+        int skipLeftCols = options.skipLeftCols as int
+        int columns      = plan.size + skipLeftCols + (options.skipRightCols as int)
+
+        List rows = []
+        String[] line = null
+
+        while ((line = reader.readNext()) != null) {
+            assert columns == line.size(), "Header size must be equal with the size of data line"
+
+            rows << plan.fillRow([:], line, skipLeftCols, options.trimData as boolean, options.dateFormater)
+
+            if(rows.size() == batchSize) {
+                cl(rows)
+                rows = []
+            }
+        }
+
+        if(rows) {
+            cl(rows)
+        }
+    }
+
+
+    /**
+     *
+     * @param channel
+     * @param pool
+     * @param plan
+     * @param bounds
+     * @param cl
+     */
+    private void processUnordered(FileChannel channel, ExecutorService pool, CSVMappingPlan plan, List<Long> bounds, Closure cl) {
+        AtomicInteger index = new AtomicInteger()
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>()
+
+        List<Future> chunks = (0..<bounds.size() - 1).collect { int k ->
+            pool.submit({
+                try {
+                    parseChunk(channel, plan, bounds[k], bounds[k + 1]) { List rows ->
+                        if(failure.get()) {
+                            throw new InterruptedException()
+                        }
+                        rows.each { Map row -> cl(row, index.getAndIncrement()) }
+                    }
+                }
+                catch (InterruptedException e) {
+                    //another chunk failed
+                }
+                catch (Throwable e) {
+                    failure.compareAndSet(null, e)
+                }
+            } as Runnable)
+        }
+
+        chunks*.get()
+
+        if(failure.get()) {
+            throw failure.get()
+        }
+    }
+
+
+    /**
+     *
+     * @param channel
+     * @param pool
+     * @param plan
+     * @param bounds
+     * @param cl
+     */
+    private void processOrdered(FileChannel channel, ExecutorService pool, CSVMappingPlan plan, List<Long> bounds, Closure cl) {
+        List<BlockingQueue> queues = (0..<bounds.size() - 1).collect { new ArrayBlockingQueue(4) }
+
+        (0..<bounds.size() - 1).each { int k ->
+            BlockingQueue queue = queues[k]
+
+            pool.submit({
+                try {
+                    parseChunk(channel, plan, bounds[k], bounds[k + 1]) { List rows -> queue.put(rows) }
+                    queue.put(END)
+                }
+                catch (InterruptedException e) {
+                    //the calling thread stopped processing
+                }
+                catch (Throwable e) {
+                    queue.put(e)
+                }
+            } as Runnable)
+        }
+
+        int index = 0
+
+        queues.each { BlockingQueue queue ->
+            def rows = null
+
+            while (!(rows = queue.take()).is(END)) {
+                if(rows instanceof Throwable) {
+                    throw rows
+                }
+                rows.each { Map row -> cl(row, index++) }
+            }
+        }
+    }
+
+
+    /**
+     * Reads the mapped chunk
+     */
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer
+
+        BufferInputStream(ByteBuffer b) {
+            buffer = b
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1
+        }
+
+        public int read(byte[] bytes, int offset, int length) {
+            if(!buffer.hasRemaining()) {
+                return -1
+            }
+
+            int count = Math.min(length, buffer.remaining())
+            buffer.get(bytes, offset, count)
+            return count
+        }
+    }
+}
@@ -0,0 +1,10 @@
+environments {
+    development {
+        dsl {
+            emcInheritance = true
+            scripts = 'src/test/scripts/batch'
+            delegates = [org.beedom.dslforge.test.delegates.ReportingScenarioDelegate,
+                         org.beedom.dslforge.test.delegates.ReportingFeatureDelegate]
+        }
+    }
+}
@@ -0,0 +1,12 @@
+environments {
+     development {
+         dsl {
+             emcInheritance = true
+             compileTimeWiring = true
+             scripts = 'src/test/scripts'
+             defaultDelegate = [feature: org.beedom.dslforge.test.delegates.FeatureDelegate]
+             delegates = [org.beedom.dslforge.test.delegates.ScenarioDelegate,
+                          org.beedom.dslforge.test.delegates.FeatureDelegate]
+         }
+     }
+}
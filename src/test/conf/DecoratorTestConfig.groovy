@@ -5,4 +5,13 @@ environments {
          dsl.categories = [ org.beedom.dslforge.integrations.OpenCSVCategory,
                             org.beedom.dslforge.test.decorators.ShallCategory ]
      }
+     metaClassCategories {
+         dsl.scripts = 'src/test/scripts'
+         dsl.categoryMode = 'metaClass'
+         dsl.categories = [ org.beedom.dslforge.integrations.OpenCSVCategory,
+                            org.beedom.dslforge.test.decorators.ShallCategory ]
+     }
+     noCategories {
+         dsl.scripts = 'src/test/scripts'
+     }
 }
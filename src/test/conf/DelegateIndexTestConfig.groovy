@@ -0,0 +1,10 @@
+environments {
+    development {
+        dsl {
+            scripts = 'src/test/scripts'
+            delegateIndex = true
+            delegates = [org.beedom.dslforge.test.delegates.StepDelegate,
+                         org.beedom.dslforge.test.delegates.IndexedDelegate]
+        }
+    }
+}
@@ -0,0 +1,15 @@
+environments {
+     development {
+         dsl {
+             delegatePoolSize = 4
+             delegates = [org.beedom.dslforge.test.delegates.StepDelegate]
+         }
+     }
+     metrics {
+         dsl {
+             delegates = [org.beedom.dslforge.test.delegates.StepDelegate]
+             metrics.jsonFile = 'build/tmp/metrics.jsonl'
+             metrics.interval = 3600
+         }
+     }
+}
@@ -0,0 +1,58 @@
+package org.beedom.dslforge.test.compiletime
+
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.test.delegates.FeatureDelegate
+import org.junit.Test
+
+
+/**
+ * 
+ * @author kovax
+ *
+ */
+class CompileTimeWiringTests {
+
+    def configFile = "src/test/conf/CompileTimeWiringTestConfig.groovy"
+
+    @Test
+    public void wiredScriptRuns() {
+        def dsle = new DSLEngine(configFile: configFile)
+        def feature = dsle.run("DefaultDelegate.feature")
+
+        assert feature instanceof FeatureDelegate
+        assert feature.description == "Shopping Cart Management"
+    }
+
+    @Test
+    public void wiredCallsNeedNoMetaClass() {
+        def dsle = new DSLEngine(configFile: configFile)
+        def shell = new GroovyShell(dsle.context, dsle.profile.getCompilerConfiguration(null))
+
+        def script = shell.parse('''
+            dryRunScenario = false
+            szenárió "Remove product from basket", {
+                given "logged in customer"
+                then "the basket is empty"
+            }
+        ''')
+
+        //the script keeps its default metaClass, so the call could only be dispatched by the wiring
+        def scenario = dsle.run { script.run() }
+
+        assert !(script.metaClass instanceof ExpandoMetaClass)
+        assert scenario.class.simpleName == "ScenarioDelegate"
+    }
+
+    @Test
+    public void shadowedNamesAreNotWired() {
+        def dsle = new DSLEngine(configFile: configFile)
+        def shell = new GroovyShell(dsle.context, dsle.profile.getCompilerConfiguration(null))
+
+        def script = shell.parse('''
+            def scenario(String desc, Closure cl) { return desc }
+            scenario "local method", {}
+        ''')
+
+        assert dsle.run { script.run() } == "local method"
+    }
+}
@@ -1,5 +1,6 @@
 package org.beedom.dslforge.test.compiletime;
 
+import org.beedom.dslforge.DSLEngine
 import org.beedom.dslforge.ast.local.UseRuntimeDSL
 import org.junit.Test
 
@@ -47,4 +48,39 @@ class MethodASTDelegateTests {
 
         assert customer.firstName == "logged out customer"
     }
+
+    @UseRuntimeDSL(configFile = "src/test/conf/PooledDelegateTestConfig.groovy")
+    def runStep(String desc) {
+        boolean seen = delegate.variables.containsKey("marker")
+        marker = desc
+
+        def s = step desc, { perform "action" }
+        return [seen, s.description, DSLEngine.getCurrentEngine()]
+    }
+
+    @UseRuntimeDSL(configFile = "src/test/conf/PooledDelegateTestConfig.groovy", configEnv = "metrics")
+    def runWithMetrics() {
+        return DSLEngine.getCurrentEngine()
+    }
+
+    @Test
+    public void engineIsShared() {
+        def first  = runStep("first")
+        def second = runStep("second")
+
+        assert first[0..1] == [false, "first"]
+        assert second[0..1] == [false, "second"]
+
+        DSLEngine engine = DSLEngine.getSharedEngine("src/test/conf/PooledDelegateTestConfig.groovy", "development")
+
+        assert engine.is(DSLEngine.getSharedEngine("src/test/conf/../conf/PooledDelegateTestConfig.groovy", "development"))
+        assert engine.is(first[2])
+        assert engine.is(second[2])
+
+        //the other environment of the same config has its own field
+        DSLEngine metrics = runWithMetrics()
+
+        assert !metrics.is(engine)
+        assert metrics.is(DSLEngine.getSharedEngine("src/test/conf/PooledDelegateTestConfig.groovy", "metrics"))
+    }
 }
@@ -0,0 +1,21 @@
+package org.beedom.dslforge.test.delegates
+
+import org.beedom.dslforge.ast.local.DslDelegate
+
+
+@DslDelegate(dslKey = "indexed", aliases = ["registered"])
+class IndexedDelegate {
+
+    static aliases = [mark: ["tag"]]
+
+    String name = ""
+    List marks = []
+
+    public IndexedDelegate(String n) {
+        name = n
+    }
+
+    def mark(String m) {
+        marks << m
+    }
+}
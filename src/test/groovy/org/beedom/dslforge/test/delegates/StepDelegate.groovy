@@ -0,0 +1,32 @@
+package org.beedom.dslforge.test.delegates
+
+
+class StepDelegate {
+
+    def static dslKey = "step"
+
+    def static aliases = [action: ["perform"]]
+
+    static int instances = 0
+
+    String description = ""
+    List actions = []
+
+    public StepDelegate(String desc) {
+        instances++
+        description = desc
+    }
+
+    def resetDelegate(String desc) {
+        description = desc
+        actions.clear()
+    }
+
+    def detachDelegate() {
+        return [description: description, actions: actions.clone()]
+    }
+
+    def action(String desc) {
+        actions << desc
+    }
+}
@@ -0,0 +1,102 @@
+package org.beedom.dslforge.test.runtime
+
+import groovy.sql.Sql
+
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.beedom.dslforge.BatchResult
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.SimpleRenderer
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class BatchRunnerTests {
+
+    def configFile = "src/test/conf/BatchTestConfig.groovy"
+
+    @Test
+    public void batchResultIsAggregated() {
+        def writer = new StringWriter()
+        def reporter = new SimpleRenderer(type: SimpleRenderer.ReportType.TXT, writer: new PrintWriter(writer))
+        def dsle = new DSLEngine(configFile: configFile, context: new Binding(dryRun: false), reporter: reporter)
+
+        BatchResult batch = dsle.runBatch(~/BatchFeature.*\.groovy/, 3)
+
+        assert batch.results*.scriptName == ["BatchFeature1.groovy", "BatchFeature2.groovy", "BatchFeature3Failing.groovy"]
+        assert batch.results*.status == [BatchResult.Status.PASSED, BatchResult.Status.PASSED, BatchResult.Status.FAILED]
+        assert batch.failures*.error*.message == ["failing script. Expression: false"]
+        assert !batch.success
+
+        //reports are merged in the order of the script names
+        def report = writer.toString()
+        assert report.indexOf("Batch feature 1") < report.indexOf("Batch feature 2")
+        assert report.indexOf("Batch feature 2") < report.indexOf("Batch feature 3")
+    }
+
+    @Test
+    public void scriptIsRunForEachRecord() {
+        def dsle = new DSLEngine(configFile: configFile, context: new Binding(dryRun: false))
+        def records = [[name: "joe"], [name: null], [name: "jim"], [name: "ann"]]
+
+        BatchResult batch = dsle.runEach("EachRecord.groovy", records, 2)
+
+        assert batch.results*.record == [0, 1, 2, 3]
+        assert batch.results*.value == ["JOE", null, "JIM", "ANN"]
+        assert batch.failures*.record == [1]
+        assert batch.failures*.error*.message == ["name is missing. Expression: name. Values: name = null"]
+    }
+
+    @Test
+    public void recordsInFlightAreBounded() {
+        def dsle = new DSLEngine(configFile: configFile, context: new Binding(dryRun: false))
+        AtomicInteger completed = new AtomicInteger()
+        int read = 0
+
+        //the script calls name.toUpperCase() as its last statement
+        Iterator iterator = [
+            hasNext: { read < 200 },
+            next: {
+                assert read - completed.get() <= 8, "more than 2 records per thread are in flight"
+                int i = read++
+                [name: new Expando(toUpperCase: { completed.incrementAndGet(); "NAME$i".toString() })]
+            }
+        ] as Iterator
+
+        BatchResult batch = dsle.runEach("EachRecord.groovy", [iterator: { iterator }] as Iterable, 4)
+
+        assert batch.success
+        assert batch.results*.record == (0..<200).toList()
+        assert batch.results*.value == (0..<200).collect { "NAME$it".toString() }
+    }
+
+    @Test
+    public void scriptIsRunForEachRow() {
+        def dsle = new DSLEngine(configFile: configFile, context: new Binding(dryRun: false))
+
+        BatchResult csv = dsle.runEachCsvRow("EachRecord.groovy", new File("src/test/data/address.csv"), [headerRows: 1], 2)
+
+        assert csv.success
+        assert csv.results*.value == ["JOE DEMO", "JIM SAMPLE", "JACK EXAMPLE"]
+
+        File db = File.createTempFile("records", ".db")
+        Sql sql = Sql.newInstance("jdbc:sqlite:${db.path}", "org.sqlite.JDBC")
+
+        try {
+            sql.execute("create table person (name text)")
+            ["joe", "jim"].each { sql.execute("insert into person (name) values (?)", [it]) }
+
+            BatchResult rows = dsle.runEachSqlRow("EachRecord.groovy", sql, "select name from person order by name desc", 1)
+
+            assert rows.results*.value == ["JOE", "JIM"]
+        }
+        finally {
+            sql.close()
+            db.delete()
+        }
+    }
+}
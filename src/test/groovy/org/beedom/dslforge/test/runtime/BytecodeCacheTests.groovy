@@ -0,0 +1,109 @@
+package org.beedom.dslforge.test.runtime
+
+import org.beedom.dslforge.BytecodeCache
+import org.beedom.dslforge.DSLEngine
+import org.junit.Before
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class BytecodeCacheTests {
+
+    def configFile = "src/test/conf/DefaultDelegateTestConfig.groovy"
+    def cacheDir = new File("build/tmp/bytecodeCache")
+
+    @Before
+    public void init() {
+        cacheDir.deleteDir()
+    }
+
+    private List getManifests() {
+        def manifests = []
+        cacheDir.eachFileRecurse { if(it.name == BytecodeCache.MANIFEST) manifests << it }
+        return manifests
+    }
+
+    @Test
+    public void scriptAndConfigAreCached() {
+        //the shared profile of the config was loaded before the cache was cleared
+        new DSLEngine(configFile: configFile, cacheDir: cacheDir.path)
+        cacheDir.deleteDir()
+
+        def dsle = new DSLEngine(configFile: configFile, cacheDir: cacheDir.path)
+        def feature = dsle.run("DefaultDelegate.feature")
+
+        assert feature.description == "Shopping Cart Management"
+
+        def sources = manifests.collect { File f ->
+            def p = new Properties()
+            f.withInputStream { p.load(it) }
+            return new File(p.source).name
+        }
+        assert sources.contains("DefaultDelegate.feature")
+
+        //one for the config and one for the script
+        assert manifests.size() == 2
+    }
+
+    @Test
+    public void newEngineLoadsFromCache() {
+        new DSLEngine(configFile: configFile, cacheDir: cacheDir.path).run("DefaultDelegate.feature")
+
+        def modified = manifests.collectEntries { [it.parentFile.name, it.parentFile.listFiles()*.lastModified()] }
+
+        def feature = new DSLEngine(configFile: configFile, cacheDir: cacheDir.path).run("DefaultDelegate.feature")
+
+        assert feature.description == "Shopping Cart Management"
+        assert modified == manifests.collectEntries { [it.parentFile.name, it.parentFile.listFiles()*.lastModified()] }
+    }
+
+    @Test
+    public void usedScriptIsCompiledWithScript() {
+        def home = new File("build/tmp/cacheScripts")
+        home.deleteDir()
+        new File(home, "helper").mkdirs()
+
+        def greeter = new File(home, "helper/Greeter.groovy")
+        greeter.text = 'package helper; class Greeter { static String greet(String n) { "hello " + n } }'
+        new File(home, "Greeting.groovy").text = 'return helper.Greeter.greet("cache")'
+
+        assert new DSLEngine(configFile: "src/test/conf/BatchTestConfig.groovy", cacheDir: cacheDir.path, scriptsHome: home.path).run("Greeting.groovy") == "hello cache"
+
+        def first = manifests*.parentFile.find { it.name.startsWith("Greeting") }
+        def classes = first.listFiles()*.name.sort()
+
+        greeter.text = 'package helper; class Greeter { static String greet(String n) { "hi " + n } }'
+
+        assert new DSLEngine(configFile: "src/test/conf/BatchTestConfig.groovy", cacheDir: cacheDir.path, scriptsHome: home.path).run("Greeting.groovy") == "hi cache"
+        assert !cacheDir.listFiles().find { it.name.contains(".tmp") }
+
+        //the first entry may still be used by a class loader, so it is not changed
+        assert manifests*.parentFile.findAll { it.name.startsWith("Greeting") }.size() == 2
+        assert first.listFiles()*.name.sort() == classes
+    }
+
+    @Test
+    public void changedSourceGetsNewEntry() {
+        def home = new File("build/tmp/cacheScripts")
+        home.deleteDir()
+        home.mkdirs()
+
+        def script = new File(home, "Changed.groovy")
+        script.text = 'return "first"'
+
+        assert new DSLEngine(configFile: "src/test/conf/BatchTestConfig.groovy", cacheDir: cacheDir.path, scriptsHome: home.path).run("Changed.groovy") == "first"
+
+        def first = manifests*.parentFile.find { it.name.startsWith("Changed") }
+        def modified = first.listFiles()*.lastModified()
+
+        script.text = 'return "second"'
+
+        assert new DSLEngine(configFile: "src/test/conf/BatchTestConfig.groovy", cacheDir: cacheDir.path, scriptsHome: home.path).run("Changed.groovy") == "second"
+        assert first.listFiles()*.lastModified() == modified
+        assert manifests*.parentFile.findAll { it.name.startsWith("Changed") }.size() == 2
+    }
+}
@@ -0,0 +1,59 @@
+package org.beedom.dslforge.test.runtime
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.test.delegates.FeatureDelegate
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class ConcurrentExecutionTests {
+
+    def dsle = new DSLEngine(configFile: "src/test/conf/DefaultDelegateTestConfig.groovy")
+
+    private List runParallel(int count, Closure task) {
+        def pool = Executors.newFixedThreadPool(4)
+
+        try {
+            def futures = (0..<count).collect { i -> pool.submit({ task(i) } as Callable) }
+            return futures*.get()
+        }
+        finally {
+            pool.shutdown()
+        }
+    }
+
+    @Test
+    public void scriptsRunInParallel() {
+        def features = runParallel(16) { i -> dsle.run("DefaultDelegate.feature", new Binding()) }
+
+        assert features.every { it instanceof FeatureDelegate && it.description == "Shopping Cart Management" }
+
+        //the shared instance of the delegate belongs to the execution
+        assert features.unique(false) { System.identityHashCode(it) }.size() == 16
+    }
+
+    @Test
+    public void closuresHaveTheirOwnBinding() {
+        def cl = {
+            feature "Parallel feature", {
+                in_order "to use more cores"
+            }
+            doubled = seed * 2
+        }
+
+        def bindings = runParallel(16) { i ->
+            def binding = new Binding(seed: i, dryRunScenario: false)
+            dsle.run(cl, binding)
+            return binding
+        }
+
+        bindings.eachWithIndex { binding, i -> assert binding.doubled == i * 2 }
+    }
+}
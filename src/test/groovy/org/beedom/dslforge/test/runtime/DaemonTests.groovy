@@ -0,0 +1,110 @@
+package org.beedom.dslforge.test.runtime
+
+import org.beedom.dslforge.DSLClient
+import org.beedom.dslforge.DSLDaemon
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.SimpleRenderer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class DaemonTests {
+
+    DSLDaemon daemon
+    DSLClient client
+    Thread server
+
+    @Before
+    public void init() {
+        def reporter = new SimpleRenderer(type: SimpleRenderer.ReportType.TXT, writer: new PrintWriter(new StringWriter()))
+        def dsle = new DSLEngine(configFile: "src/test/conf/BatchTestConfig.groovy", context: new Binding(dryRun: false), reporter: reporter)
+
+        daemon = new DSLDaemon(dsle, 0)
+        daemon.tokenFile = new File("build/tmp/daemon.token")
+        daemon.start()
+        server = Thread.start { daemon.serve() }
+
+        client = new DSLClient(daemon.localPort, daemon.tokenFile)
+    }
+
+    @After
+    public void tearDown() {
+        daemon.stop()
+        assert !daemon.tokenFile.exists()
+    }
+
+    @Test
+    public void scriptIsRunByDaemon() {
+        def out = new StringWriter()
+
+        assert client.run(["BatchFeature1.groovy"], out) == 0
+        assert out.toString().contains("Batch feature 1")
+        assert out.toString().contains("PASSED BatchFeature1.groovy")
+
+        //the engine is warm, the script is not compiled again
+        assert client.run(["BatchFeature1.groovy"], new StringWriter()) == 0
+    }
+
+    @Test
+    public void failureIsReported() {
+        def out = new StringWriter()
+
+        assert client.runBatch("BatchFeature.*", 2, out) == 1
+        assert out.toString().contains("FAILED BatchFeature3Failing.groovy")
+    }
+
+    @Test
+    public void invalidTokenIsRejected() {
+        File invalid = File.createTempFile("daemon", ".token")
+        invalid.deleteOnExit()
+        invalid.text = "invalid"
+
+        def out = new StringWriter()
+
+        assert new DSLClient(daemon.localPort, invalid).run(["BatchFeature1.groovy"], out) == 2
+        assert out.toString().contains("ERROR invalid token")
+        assert !out.toString().contains("BatchFeature1.groovy")
+    }
+
+    @Test
+    public void idleConnectionsAreClosed() {
+        daemon.readTimeout = 200
+
+        def idle = (1..DSLDaemon.MAX_CONNECTIONS).collect { new Socket(InetAddress.getByName(null), daemon.localPort) }
+
+        try {
+            def out = new StringWriter()
+
+            assert client.run(["BatchFeature1.groovy"], out) == 0
+            assert out.toString().contains("PASSED BatchFeature1.groovy")
+
+            //the daemon closed the idle connections
+            idle.each { assert it.inputStream.read() == -1 }
+        }
+        finally {
+            idle*.close()
+        }
+    }
+
+    @Test
+    public void scriptOutsideScriptsHomeIsRejected() {
+        def out = new StringWriter()
+
+        assert client.run(["../conf/BatchTestConfig.groovy"], out) == 2
+        assert out.toString().contains("ERROR script is outside of the scripts home")
+    }
+
+    @Test
+    public void daemonIsShutDown() {
+        assert client.shutdown() == 0
+
+        server.join(5000)
+        assert !server.alive
+    }
+}
@@ -33,4 +33,57 @@ class DecoratorTests extends TestBase {
         assert context.product
     }
 
+    @Test
+    public void categoriesAreRegistered() {
+        MetaClassRegistry registry = GroovySystem.metaClassRegistry
+        boolean inheritance = registry.metaClassCreationHandler instanceof ExpandoMetaClassCreationHandle
+
+        //the development environment of init() enables the inheritance globally
+        ExpandoMetaClass.disableGlobally()
+
+        try {
+            assert !(registry.metaClassCreationHandler instanceof ExpandoMetaClassCreationHandle)
+
+            //the metaClasses of other classes are left alone
+            MetaClass unrelated = registry.getMetaClass(StringBuilder)
+
+            def dsle = new DSLEngine(configFile: "src/test/conf/DecoratorTestConfig.groovy", configEnv: "metaClassCategories")
+
+            assert dsle.profile.categoriesRegistered
+
+            dsle.run {
+                product = new Product(id: "100", name: "Noname RW/DL")
+                product.id.shall "be", "100"
+                header = new File("src/test/data/address.csv").openCsvHeader(headerRows:1)
+            }
+            assert dsle.context.header
+            assert !registry.getMetaClass(HashMap).respondsTo([:], "setDefaultOptions")
+
+            try {
+                dsle.run { product.id.shall "be", "200" }
+                fail "AssertionError was expected"
+            }
+            catch (AssertionError e) {
+            }
+
+            //not visible outside of the engines using the categories
+            def other = new DSLEngine(configFile: "src/test/conf/DecoratorTestConfig.groovy", configEnv: "noCategories")
+
+            [{ "100".shall "be", "100" }, { other.run { "100".shall "be", "100" } }].each { cl ->
+                try {
+                    cl()
+                    fail "MissingMethodException was expected"
+                }
+                catch (MissingMethodException e) {
+                }
+            }
+            assert registry.getMetaClass(StringBuilder).is(unrelated)
+        }
+        finally {
+            if(inheritance) {
+                ExpandoMetaClass.enableGlobally()
+            }
+        }
+    }
+
 }
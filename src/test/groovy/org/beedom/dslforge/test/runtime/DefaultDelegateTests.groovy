@@ -2,6 +2,7 @@ package org.beedom.dslforge.test.runtime
 
 import org.beedom.dslforge.DSLEngine;
 import org.beedom.dslforge.test.TestBase;
+import org.beedom.dslforge.test.delegates.FeatureDelegate;
 import org.junit.Before;
 import org.junit.Test
 
@@ -19,6 +20,17 @@ class DefaultDelegateTests extends TestBase {
         dsle.run("DefaultDelegate.feature")
     }
 
+    @Test
+    public void defaultDelegateScriptRerun() {
+        def first = dsle.run("DefaultDelegate.feature")
+        def second = dsle.run("DefaultDelegate.feature")
+
+        //the whole script is executed by the closure of the default delegate
+        assert first instanceof FeatureDelegate
+        assert first.description == "Shopping Cart Management"
+        assert second.description == "Shopping Cart Management"
+    }
+
     @Test
     public void defaultDelegateClosure() {
         dsle.run {
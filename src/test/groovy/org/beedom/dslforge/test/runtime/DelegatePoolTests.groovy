@@ -0,0 +1,83 @@
+package org.beedom.dslforge.test.runtime
+
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.test.delegates.StepDelegate
+import org.junit.Before
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class DelegatePoolTests {
+
+    def dsle
+
+    @Before
+    public void init() {
+        dsle = new DSLEngine(configFile: "src/test/conf/PooledDelegateTestConfig.groovy")
+        StepDelegate.instances = 0
+    }
+
+    @Test
+    public void delegateIsReused() {
+        def last = dsle.run {
+            def s
+            10.times { i ->
+                s = step "step $i", { action "action $i" }
+            }
+            return s
+        }
+
+        assert StepDelegate.instances == 1
+        assert last.description == "step 9"
+        assert last.actions == ["action 9"]
+    }
+
+    @Test
+    public void returnedStepsAreNotChanged() {
+        def steps = dsle.run {
+            def all = []
+            3.times { i ->
+                all << step("step $i", { action "action $i" })
+            }
+            return all
+        }
+
+        assert StepDelegate.instances == 1
+        assert steps*.description == ["step 0", "step 1", "step 2"]
+        assert steps*.actions == [["action 0"], ["action 1"], ["action 2"]]
+    }
+
+    @Test
+    public void failingBlockReleasesDelegate() {
+        dsle.run {
+            try {
+                step "failing", { throw new IllegalStateException("failing step") }
+            }
+            catch (IllegalStateException e) {
+                assert e.message == "failing step"
+            }
+            step "next", { action "next action" }
+        }
+
+        assert StepDelegate.instances == 1
+    }
+
+    @Test
+    public void nestedDelegatesAreNotShared() {
+        dsle.run {
+            step "outer", {
+                action "outer action"
+                step "inner", { action "inner action" }
+            }
+            step "next", {
+                step "next inner", {}
+            }
+        }
+
+        assert StepDelegate.instances == 2
+    }
+}
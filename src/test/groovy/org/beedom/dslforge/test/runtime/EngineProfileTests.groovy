@@ -0,0 +1,280 @@
+package org.beedom.dslforge.test.runtime
+
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.DelegateDescriptor
+import org.beedom.dslforge.EngineProfile
+import org.beedom.dslforge.test.delegates.FeatureDelegate
+import org.beedom.dslforge.test.delegates.IndexedDelegate
+import org.beedom.dslforge.test.delegates.ScenarioDelegate
+import org.beedom.dslforge.test.delegates.StepDelegate
+import org.codehaus.groovy.control.CompilationUnit
+import org.codehaus.groovy.control.CompilerConfiguration
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class EngineProfileTests {
+
+    def configFile = "src/test/conf/DefaultDelegateTestConfig.groovy"
+
+    @Test
+    public void profileIsShared() {
+        def dsle1 = new DSLEngine(configFile: configFile)
+        def dsle2 = new DSLEngine(configFile: configFile)
+
+        assert dsle1.profile.is(dsle2.profile)
+        assert dsle1.profile.is(EngineProfile.forConfig(configFile, "development"))
+    }
+
+    @Test
+    public void profileIsResolved() {
+        EngineProfile profile = EngineProfile.forConfig(configFile, "development")
+
+        def scenario = profile.delegates.find { it.clazz == ScenarioDelegate }
+
+        assert scenario.dslKey == "scenario"
+        assert scenario.methods == ["scenario", "szenárió", "process"]
+        assert profile.aliases["scenario-adott"] == "given"
+        assert profile.getDefaultDslKey("DefaultDelegate.feature") == "feature"
+        assert profile.getCompilerConfiguration("feature").is(profile.getCompilerConfiguration("feature"))
+    }
+
+    @Test
+    public void metaClassIsReused() {
+        def cl = {
+            scenario "Remove product from basket", {
+                given "logged in customer"
+                then "the basket is empty"
+            }
+        }
+
+        new DSLEngine(configFile: configFile).run(cl)
+        def emc = cl.metaClass
+
+        new DSLEngine(configFile: configFile).run(cl)
+
+        assert emc instanceof ExpandoMetaClass
+        assert cl.metaClass.is(emc)
+    }
+
+    @Test
+    public void discardedClassIsCollected() {
+        EngineProfile profile = EngineProfile.forConfig(configFile, "development")
+
+        def loader = new GroovyClassLoader()
+        Class clazz = loader.parseClass("class Discarded { def run() { 'discarded' } }")
+
+        profile.getMetaClass(clazz) { new ExpandoMetaClass(clazz, false, true) }
+
+        def collected = new java.lang.ref.WeakReference(clazz)
+        clazz = null
+        loader.clearCache()
+        loader = null
+
+        //ASTTransformationVisitor keeps the last CompilationUnit in a static field
+        new GroovyClassLoader().parseClass("class Compiled {}")
+
+        //groovy keeps the ClassInfo of the classes by SoftReferences, which are cleared before OutOfMemoryError
+        def sentinel = new java.lang.ref.SoftReference(new Object())
+        def garbage = []
+
+        try {
+            while(sentinel.get()) {
+                garbage << new byte[1024 * 1024]
+            }
+        }
+        catch (OutOfMemoryError e) {
+            //soft references are cleared by now
+        }
+        garbage = null
+
+        for(int i = 0; i < 50 && collected.get(); i++) {
+            System.gc()
+            Thread.sleep(20)
+        }
+
+        assert collected.get() == null
+    }
+
+    @Test
+    public void descriptorIsResolved() {
+        DelegateDescriptor feature = EngineProfile.forConfig(configFile, "development").getDelegate(FeatureDelegate)
+
+        assert feature.dslKey == "feature"
+        assert feature.sharedInstance && feature.initDelegate
+        assert !feature.processClosure && !feature.destroyDelegate && !feature.delegateMethods
+        assert feature.newInstance([] as Object[]) instanceof FeatureDelegate
+    }
+
+    @Test
+    public void aliasTableIsResolved() {
+        EngineProfile profile = EngineProfile.forConfig(configFile, "development")
+
+        def given = profile.getAliasMethod(ScenarioDelegate, "adott", ["logged in customer"] as Object[])
+        def givenClosure = profile.getAliasMethod(ScenarioDelegate, "provided", ["logged in customer", {}] as Object[])
+
+        assert given.name == "given" && given.parameterTypes.length == 1
+        assert givenClosure.name == "given" && givenClosure.parameterTypes.length == 2
+        assert !profile.getAliasMethod(ScenarioDelegate, "adott", [1, 2, 3] as Object[])
+        assert !profile.getAliasMethod(ScenarioDelegate, "unknown", ["logged in customer"] as Object[])
+    }
+
+    @Test
+    public void propertyMethodIsCached() {
+        EngineProfile profile = EngineProfile.forConfig(configFile, "development")
+        MetaClassRegistry registry = GroovySystem.metaClassRegistry
+
+        ExpandoMetaClass emc = new ExpandoMetaClass(FeatureDelegate, false, true)
+        emc.initialize()
+        registry.setMetaClass(FeatureDelegate, emc)
+
+        try {
+            def feature = new FeatureDelegate()
+            def calls = 0
+
+            2.times { assert !profile.getPropertyMethod(feature, "nothing") { calls++; return null } }
+            assert calls == 1
+
+            //the metaClass of the class is changed in place, so only its version tells the change
+            FeatureDelegate.metaClass.nothing = {-> "something" }
+
+            assert feature.metaClass.adaptee.is(emc)
+            assert profile.getPropertyMethod(feature, "nothing") { calls++; feature.metaClass.getMetaMethod("nothing") }
+            assert calls == 2
+        }
+        finally {
+            registry.removeMetaClass(FeatureDelegate)
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException)
+    public void profileIsImmutable() {
+        EngineProfile.forConfig(configFile, "development").delegates.clear()
+    }
+
+    @Test
+    public void scriptKeywordsAreRecorded() {
+        EngineProfile profile = EngineProfile.forConfig(configFile, "development")
+        def loader = new GroovyClassLoader(getClass().classLoader, profile.getCompilerConfiguration(null))
+
+        Class both    = loader.parseClass('feature "f", { scenario "s", { given "g" } }')
+        Class feature = loader.parseClass('def f = { feature "f", {} }; f()')
+
+        assert profile.getScriptKeywords(both) == ["feature", "scenario"]
+        assert profile.getScriptKeywords(feature) == ["feature"]
+        assert profile.getScriptKeywords({ feature "f", {} }.getClass()) == null
+    }
+
+    @Test
+    public void missingKeywordIsRegistered() {
+        def cl = {
+            scenario "Remove product from basket", {
+                given "logged in customer"
+            }
+        }
+
+        DSLEngine dsle = new DSLEngine(configFile: configFile)
+        dsle.run(cl)
+
+        ExpandoMetaClass emc = dsle.profile.getMetaClass(cl.getClass()) { null }
+
+        assert emc.expandoMethods*.name.contains("scenario")
+        assert emc.is(cl.metaClass)
+
+        dsle.run(cl)
+    }
+
+    @Test
+    public void delegateIndexIsLoaded() {
+        EngineProfile profile = EngineProfile.forConfig("src/test/conf/DelegateIndexTestConfig.groovy", "development")
+
+        assert EngineProfile.loadDelegateIndex().contains(IndexedDelegate)
+        //IndexedDelegate is annotated and also listed by dsl.delegates
+        assert profile.delegates*.clazz == [StepDelegate, IndexedDelegate]
+        assert profile.getDelegate(IndexedDelegate).methods == ["indexed", "registered"]
+        assert profile.aliases["indexed-tag"] == "mark"
+
+        def indexed = new DSLEngine(configFile: "src/test/conf/DelegateIndexTestConfig.groovy").run {
+            registered "index", {
+                tag "build"
+            }
+        }
+
+        assert indexed.marks == ["build"]
+        assert !EngineProfile.forConfig(configFile, "development").getDelegate(IndexedDelegate)
+    }
+
+    @Test
+    public void missingClassOfIndexIsSkipped() {
+        File dir = new File("build/tmp/staleIndex")
+        File index = new File(dir, EngineProfile.DELEGATE_INDEX)
+        index.parentFile.mkdirs()
+        //a renamed class, and a class which is not annotated anymore
+        index.text = "org.beedom.dslforge.test.delegates.RenamedDelegate\norg.beedom.dslforge.test.delegates.StepDelegate\n"
+
+        Thread thread = Thread.currentThread()
+        ClassLoader contextLoader = thread.contextClassLoader
+        thread.contextClassLoader = new URLClassLoader([dir.toURI().toURL()] as URL[], getClass().classLoader)
+
+        try {
+            assert EngineProfile.loadDelegateIndex() == [IndexedDelegate]
+        }
+        finally {
+            thread.contextClassLoader = contextLoader
+        }
+    }
+
+    @Test
+    public void partialCompilationKeepsIndex() {
+        File dir = new File("build/tmp/partialIndex")
+        dir.deleteDir()
+
+        ['FirstIndexed', 'SecondIndexed'].each { name ->
+            def unit = new CompilationUnit(new CompilerConfiguration(targetDirectory: dir))
+            unit.addSource(name + ".groovy", "@org.beedom.dslforge.ast.local.DslDelegate class $name {}")
+            unit.compile()
+        }
+
+        assert new File(dir, EngineProfile.DELEGATE_INDEX).readLines() == ["FirstIndexed", "SecondIndexed"]
+    }
+
+    @Test
+    public void scopedInheritanceIsApplied() {
+        MetaClassRegistry registry = GroovySystem.metaClassRegistry
+        boolean inheritance = registry.metaClassCreationHandler instanceof ExpandoMetaClassCreationHandle
+
+        //other tests may have enabled the inheritance globally
+        ExpandoMetaClass.disableGlobally()
+
+        try {
+            assert !(registry.metaClassCreationHandler instanceof ExpandoMetaClassCreationHandle)
+
+            def loader = new GroovyClassLoader(getClass().classLoader)
+            loader.parseClass('class ScopedBase {}')
+            Class scoped = loader.parseClass('class ScopedChild extends ScopedBase { static dslKey = "child"; def name; ScopedChild(String n) { name = n } }')
+
+            scoped.superclass.metaClass.shout = {-> name.toUpperCase() }
+
+            def config = new ConfigSlurper().parse("dsl { emcInheritance = 'scoped'; delegates = [] }")
+            config.dsl.delegates = [scoped]
+
+            def dsle = new DSLEngine(dslConfig: config)
+            def shouted = null
+
+            dsle.run { child "scoped", { shouted = shout() } }
+
+            assert dsle.profile.scopedInheritance
+            assert !(registry.metaClassCreationHandler instanceof ExpandoMetaClassCreationHandle)
+            assert shouted == "SCOPED"
+        }
+        finally {
+            if(inheritance) {
+                ExpandoMetaClass.enableGlobally()
+            }
+        }
+    }
+}
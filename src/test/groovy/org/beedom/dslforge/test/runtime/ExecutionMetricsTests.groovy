@@ -0,0 +1,143 @@
+package org.beedom.dslforge.test.runtime
+
+import java.lang.management.ManagementFactory
+
+import javax.management.ObjectName
+
+import org.beedom.dslforge.DSLEngine
+import org.beedom.dslforge.ExecutionMetrics
+import org.beedom.dslforge.ExecutionProbe
+import org.beedom.dslforge.JmxMetricsExporter
+import org.beedom.dslforge.JsonLinesMetricsExporter
+import org.beedom.dslforge.NoopExecutionListener
+import org.junit.Before
+import org.junit.Test
+
+
+/**
+ *
+ * @author kovax
+ *
+ */
+class ExecutionMetricsTests {
+
+    def dsle
+    def metrics
+
+    @Before
+    public void init() {
+        dsle    = new DSLEngine(configFile: "src/test/conf/PooledDelegateTestConfig.groovy")
+        metrics = new ExecutionMetrics()
+    }
+
+    @Test
+    public void noopListenerIsDefault() {
+        assert dsle.listener.is(NoopExecutionListener.INSTANCE)
+        assert !dsle.instrumented
+    }
+
+    @Test
+    public void delegateBlocksAndAliasesAreMeasured() {
+        dsle.listener = metrics
+
+        dsle.run {
+            3.times { i ->
+                step "step $i", { perform "action $i" }
+            }
+        }
+
+        def stats = metrics.snapshot()
+
+        assert stats[ExecutionProbe.DELEGATE].step.count == 3
+        assert stats[ExecutionProbe.DELEGATE].step.errors == 0
+        assert stats[ExecutionProbe.DELEGATE].step.maxNanos <= stats[ExecutionProbe.DELEGATE].step.totalNanos
+        assert stats[ExecutionProbe.ALIAS]["StepDelegate.perform"].count == 3
+    }
+
+    @Test
+    public void mainAliasesAreMeasuredByDslKey() {
+        def engine = new DSLEngine(configFile: "src/test/conf/DefaultDelegateTestConfig.groovy")
+        engine.listener = metrics
+
+        engine.run {
+            scenario "by dslKey", {}
+            process "by main alias", {}
+        }
+
+        assert metrics.snapshot()[ExecutionProbe.DELEGATE].keySet() == ["scenario"] as Set
+        assert metrics.getStat(ExecutionProbe.DELEGATE, "scenario").count.get() == 2
+    }
+
+    @Test
+    public void metricsAreSharedByProfile() {
+        def exporters = { Thread.allStackTraces.keySet().count { it.name == "dslforge-metrics" && it.alive } }
+        int running = exporters()
+
+        def engines = (1..3).collect { new DSLEngine(configFile: "src/test/conf/PooledDelegateTestConfig.groovy", configEnv: "metrics") }
+
+        assert engines*.listener.unique().size() == 1
+        assert engines[0].listener.is(engines[0].profile.metrics)
+        assert exporters() <= running + 1
+
+        engines[0].profile.stopMetrics()
+
+        for(int i = 0; i < 50 && exporters() > running; i++) {
+            Thread.sleep(20)
+        }
+        assert exporters() <= running
+    }
+
+    @Test
+    public void failedBlockIsCounted() {
+        dsle.listener = metrics
+
+        try {
+            dsle.run {
+                step "failing", { throw new IllegalStateException("failing step") }
+            }
+            assert false, "exception was not thrown"
+        }
+        catch (IllegalStateException e) {}
+
+        assert metrics.getStat(ExecutionProbe.DELEGATE, "step").errors.get() == 1
+    }
+
+    @Test
+    public void metricsAreExportedToJsonLines() {
+        File file = File.createTempFile("metrics", ".jsonl")
+        file.deleteOnExit()
+
+        dsle.listener = metrics
+        dsle.run { step "step", {} }
+
+        new JsonLinesMetricsExporter(metrics, file, 60).export()
+
+        def lines = file.readLines()
+        assert lines.size() == 1
+        assert lines[0].contains('"probe":"DELEGATE"')
+        assert lines[0].contains('"name":"step"')
+        assert lines[0].contains('"count":1')
+    }
+
+    @Test
+    public void metricsAreExportedToJmx() {
+        def exporter = new JmxMetricsExporter(metrics, "org.beedom.dslforge.test:type=ExecutionMetrics")
+        exporter.start()
+
+        try {
+            dsle.listener = metrics
+            dsle.run { step "step", {} }
+
+            def server = ManagementFactory.platformMBeanServer
+            def name   = new ObjectName("org.beedom.dslforge.test:type=ExecutionMetrics")
+
+            assert server.getAttribute(name, "DELEGATE.step.count") == 1
+
+            server.invoke(name, "reset", null, null)
+            assert !metrics.snapshot()[ExecutionProbe.DELEGATE]
+        }
+        finally {
+            exporter.stop()
+        }
+    }
+}
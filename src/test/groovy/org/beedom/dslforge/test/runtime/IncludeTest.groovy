@@ -45,4 +45,37 @@ class IncludeTest extends TestBase {
         
         assert context.customer
     }
+
+    @Test
+    public void includedScriptIsCompiledOnce() {
+        def binding = new Binding()
+
+        def classes = dsle.run({
+            [include("include/IncludedUnit.groovy"), include("include/IncludedUnit.groovy")]
+        }, binding)
+
+        assert classes[0].is(classes[1])
+        assert binding.includeCount == 2
+        assert dsle.includeCache.compileCount == 1
+
+        dsle.run({ include("include/IncludedUnit.groovy") }, new Binding())
+
+        assert dsle.includeCache.compileCount == 1
+    }
+
+    @Test
+    public void circularIncludeIsDetected() {
+        def binding = new Binding()
+
+        try {
+            dsle.run({ include "include/CycleA.groovy" }, binding)
+            assert false, "circular include was not detected"
+        }
+        catch (RuntimeException e) {
+            assert e.message == "Circular include: include/CycleA.groovy -> include/CycleB.groovy -> include/CycleA.groovy"
+        }
+
+        assert !binding.variables.cycleA
+        assert !binding.variables.cycleB
+    }
 }
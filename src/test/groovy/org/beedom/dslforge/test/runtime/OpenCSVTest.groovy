@@ -1,8 +1,12 @@
 package org.beedom.dslforge.test.runtime
 
+import static org.junit.Assert.fail
+
 import org.junit.Before
 import org.junit.Test
 
+import org.beedom.dslforge.integrations.CSVMappingPlan
+import org.beedom.dslforge.integrations.CSVValueType
 import org.beedom.dslforge.integrations.OpenCSVCategory
 import groovy.xml.MarkupBuilder
 
@@ -240,4 +244,167 @@ kind,userid,password,title,firstName,lastName,sex,age,purpose,country,countryCod
             println writer.toString()
         }
     }
+
+    @Test
+    public void mappingPlanIsEqualToConvertedNames() {
+        use(OpenCSVCategory) {
+            def file = new File("src/test/data/multiHeaderWithRepeat.csv")
+            def header = file.openCsvHeader(headerRows:3)
+            def plan = new CSVMappingPlan(header)
+            def lines = file.readLines().drop(3)*.split(",", -1)
+
+            assert plan.size == header.size()
+
+            lines.each { String[] line ->
+                def expected = [:]
+                header.eachWithIndex { names, i -> OpenCSVCategory.convertNamesToMaps(expected, names, false, null, line[i]) }
+
+                assert plan.fillRow([:], line, 0, false, null) == expected
+            }
+        }
+    }
+
+    @Test
+    public void columnTypesAreUsed() {
+        use(OpenCSVCategory) {
+            def file = new File("src/test/data/convertedTypes.csv")
+
+            file.openCsvEachRow(headerRows:1, dateFormater:'yyyy/MM/dd', columnTypes:[integer: String, bigdecimal: 'bigDecimal']) { types, i ->
+                assert types.integer == '34'
+                assert types.bigdecimal == 89.6
+                assert types.date == new Date().parse('yyyy/MM/dd', '1969/02/23')
+            }
+
+            def plan = new CSVMappingPlan(file.openCsvHeader(headerRows:1), [string: Integer])
+            plan.inferTypes([file.readLines()[1].split(",", -1)], 0, 'yyyy/MM/dd')
+
+            assert (0..5).collect { plan.getColumnType(it) } ==
+                [null, CSVValueType.INTEGER, CSVValueType.INTEGER, CSVValueType.DATE, CSVValueType.BIG_DECIMAL, CSVValueType.BIG_INTEGER]
+
+            //the value which does not match the type of the column is guessed
+            assert plan.fillRow([:], ["", "customer", "34", "1969/02/23", "89.6", "1"] as String[], 0, false, 'yyyy/MM/dd').string == "customer"
+
+            file.openCsvEachRow(headerRows:1, dateFormater:'yyyy/MM/dd', inferTypes: 10) { types, i ->
+                assert types.string == 'customer'
+                assert types.biginteger == 12345678901234567890
+            }
+        }
+    }
+
+    @Test
+    public void numbersAreClassified() {
+        assert CSVValueType.classify("2147483647") == CSVValueType.INTEGER
+        assert CSVValueType.classify("-2147483648") == CSVValueType.INTEGER
+        assert CSVValueType.classify("2147483648") == CSVValueType.BIG_INTEGER
+        assert CSVValueType.classify("+1.5e-3") == CSVValueType.BIG_DECIMAL
+        assert CSVValueType.classify(".5") == CSVValueType.BIG_DECIMAL
+        assert !CSVValueType.classify("1e")
+        assert !CSVValueType.classify("1.2.3")
+        assert !CSVValueType.classify("customer")
+
+        ["34", "-7", "+8", "2147483648", "89.6", "1e5", "5.", "abc", "", "  ", " 12 "].each {
+            def expected = it.isInteger() ? it.trim() as Integer : it.isBigInteger() ? it.trim() as BigInteger :
+                           it.isBigDecimal() ? it.trim() as BigDecimal : it
+
+            assert OpenCSVCategory.convertValue(it, false, null) == expected
+        }
+
+        assert OpenCSVCategory.convertValue(new Date(0).toString(), false, null) == new Date(0)
+    }
+
+    @Test
+    public void rowsAreProcessedInParallel() {
+        use(OpenCSVCategory) {
+            def file = new File("src/test/data/multiHeaderWithRepeat.csv")
+            def expected = []
+            def copy
+            copy = { it instanceof Map ? it.collectEntries { k, v -> [k, copy(v)] } : it instanceof List ? it.collect { copy(it) } : it }
+
+            //the Map of the row is reused by the sequential processing
+            file.openCsvEachRow(headerRows:3) { row, i -> expected << [i, copy(row)] }
+
+            def unordered = Collections.synchronizedList([])
+            file.openCsvEachRow(headerRows:3, parallelism:3, batchSize:1) { row, i -> unordered << [i, row] }
+
+            assert unordered.sort { it[0] } == expected
+
+            def ordered = []
+            def threads = Collections.synchronizedSet([] as Set)
+            file.openCsvEachRow(headerRows:3, parallelism:3, batchSize:1, ordered:true) { row, i ->
+                ordered << [i, row]
+                threads << Thread.currentThread()
+            }
+
+            assert ordered == expected
+            assert !threads.contains(Thread.currentThread())
+
+            try {
+                file.openCsvEachRow(headerRows:3, parallelism:2, batchSize:1, ordered:true) { row, i -> assert i != 1, "failing row" }
+                fail "AssertionError was expected"
+            }
+            catch (AssertionError e) {
+                assert e.message.startsWith("failing row")
+            }
+
+            try {
+                file.openCsvEachRow(headerRows:3, parallelism:2, batchSize:1) { row, i -> assert i != 1, "failing row" }
+                fail "AssertionError was expected"
+            }
+            catch (AssertionError e) {
+                assert e.message.startsWith("failing row")
+            }
+        }
+    }
+
+
+    @Test
+    public void linesWithoutHeaderAreProcessedInParallel() {
+        use(OpenCSVCategory) {
+            def file = new File("src/test/data/address.csv")
+            def expected = []
+            file.openCsvEachRow { line, i -> expected << [i, line as List] }
+
+            def unordered = Collections.synchronizedList([])
+            file.openCsvEachRow(parallelism:3, batchSize:1) { line, i -> unordered << [i, line as List] }
+
+            assert unordered.sort { it[0] } == expected
+
+            def ordered = []
+            file.openCsvEachRow(parallelism:3, batchSize:1, ordered:true) { line, i -> ordered << [i, line as List] }
+
+            assert ordered == expected
+        }
+    }
+
+
+    @Test
+    public void chunksAreParsedInParallel() {
+        use(OpenCSVCategory) {
+            def file = File.createTempFile("split", ".csv")
+            file.deleteOnExit()
+            file.text = "id,text\n" + (1..50).collect { "$it,\"line $it\nnext \\\"line\\\", $it\"\n" }.join()
+
+            def copy
+            copy = { it instanceof Map ? it.collectEntries { k, v -> [k, copy(v)] } : it instanceof List ? it.collect { copy(it) } : it }
+
+            [[file, [headerRows:1]], [new File("src/test/data/multiHeaderWithRepeat.csv"), [headerRows:3]]].each { csv, options ->
+                def expected = []
+                csv.openCsvEachRow(options.clone()) { row, i -> expected << [i, copy(row)] }
+
+                assert csv != file || expected[0][1].text == 'line 1\nnext "line", 1'
+
+                def ordered = []
+                csv.openCsvEachRow(options + [splitParsing:true, chunkSize:16, parallelism:3, ordered:true]) { row, i -> ordered << [i, row] }
+
+                assert ordered == expected
+
+                def unordered = Collections.synchronizedList([])
+                csv.openCsvEachRow(options + [splitParsing:true, chunkSize:16, parallelism:3]) { row, i -> unordered << row }
+
+                assert unordered.sort { it.toString() } == expected.collect { it[1] }.sort { it.toString() }
+            }
+
+            assert file.readLines().size() == 101
+        }
+    }
 }
@@ -0,0 +1,5 @@
+feature "Batch feature 2", {
+    in_order "to run the scripts in parallel"
+    as_a "developer"
+    i_want "to use all cores"
+}
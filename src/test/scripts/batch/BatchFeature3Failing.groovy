@@ -0,0 +1,4 @@
+feature "Batch feature 3", {
+    in_order "to see the failures of the batch"
+    assert false, "failing script"
+}
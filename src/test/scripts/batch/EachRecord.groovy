@@ -0,0 +1,6 @@
+feature "Record $recordIndex", {
+    in_order "to run the script for each record"
+    assert name, "name is missing"
+}
+
+return name.toUpperCase()
@@ -0,0 +1,3 @@
+cycleA = true
+
+include "include/CycleB.groovy"
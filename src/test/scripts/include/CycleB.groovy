@@ -0,0 +1,3 @@
+cycleB = true
+
+include "include/CycleA.groovy"
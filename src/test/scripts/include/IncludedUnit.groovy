@@ -0,0 +1,3 @@
+includeCount = (binding.variables.includeCount ?: 0) + 1
+
+return this.class